@@ -0,0 +1,36 @@
+package com.github.actions;
+
+// Debounce interval that follows the measured cost of the work it delays. The work reports
+// how long each run took; the delay is a multiple of the running average, clamped to a
+// range. Cheap work on a small file then runs almost at once, while work that gets expensive
+// on a huge file backs off and runs less often. Safe to record on one thread and read on another.
+public class AdaptiveDebounce {
+    private final long minDelay;
+    private final long maxDelay;
+    private final int factor;
+    private volatile long averageNanos = -1; // -1 until the first run is measured
+
+    // Delays are in milliseconds; factor is the delay per unit of average cost
+    public AdaptiveDebounce(long minDelay, long maxDelay, int factor) {
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.factor = factor;
+    }
+
+    public void record(long nanos) {
+        long average = averageNanos;
+        // Weighted towards recent runs, so the delay follows a document as it grows or shrinks
+        averageNanos = average < 0 ? nanos : (3 * average + nanos) / 4;
+    }
+
+    // Forgets the measurements, e.g. when another document is opened
+    public void reset() {
+        averageNanos = -1;
+    }
+
+    public long delay() {
+        long average = averageNanos;
+        if (average < 0) return minDelay;
+        return Math.max(minDelay, Math.min(maxDelay, average * factor / 1_000_000));
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs a SyntaxHighlighter on a worker thread. The worker keeps its own copy of the text,
+// fed with the same edits as the editor, so nothing is lexed on the UI thread and no lock is
+// shared with it. After each batch of edits the worker publishes the tokens of every line,
+// as line-relative (type, start, end) triples; a line's array keeps its identity while its
+// tokens do not change, so the UI can tell which lines need new spans with a reference check.
+// A freshly loaded text is lexed on all cores, which matters for multi-megabyte files. Edits
+// are batched for a time that grows with what a batch has been costing, so a huge document
+// is re-lexed and republished less often than a small one. Each line's brackets outside
+// strings and comments are published the same way and feed a BracketIndex on the UI thread,
+// together with the range of lines a batch changed so the index only touches those.
+public class BackgroundHighlighter {
+    public interface Listener {
+        // Called on the UI thread when tokens matching the current text are available
+        void onTokensChanged();
+    }
+
+    private static final int[] NO_TOKENS = new int[0];
+
+    private static final class Op {
+        final int version;
+        final CharSequence load; // Full text for a load, null for an edit
+        final int offset;
+        final int removedLength;
+        final String inserted;
+
+        Op(int version, CharSequence load, int offset, int removedLength, String inserted) {
+            this.version = version;
+            this.load = load;
+            this.offset = offset;
+            this.removedLength = removedLength;
+            this.inserted = inserted;
+        }
+    }
+
+    private final SyntaxLexer lexer;
+    private final Listener listener;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final AdaptiveDebounce debounce = new AdaptiveDebounce(0, 500, 2);
+    private final android.os.Handler handler = new android.os.Handler(android.os.Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<Op> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // UI thread state
+    private int version;
+    private int publishedVersion = -1;
+    private ArrayList<int[]> current = new ArrayList<>();
+    private ArrayList<int[]> currentBrackets = new ArrayList<>();
+    private final BracketIndex bracketIndex;
+    private final int[] bracketsChanged = {-1, 0, 0}; // Since the index was last synced, see widen
+    private boolean bracketsReloaded;
+    private boolean closed;
+
+    // Worker thread state
+    private PieceTable text;
+    private LineIndex lines;
+    private SyntaxHighlighter highlighter;
+    private ArrayList<int[]> tokens;
+    private ArrayList<int[]> brackets;
+    private final int[] changed = {-1, 0, 0}; // Lines whose brackets changed in this batch
+
+    public BackgroundHighlighter(SyntaxLexer lexer, Listener listener) {
+        this.lexer = lexer;
+        this.listener = listener;
+        bracketIndex = new BracketIndex(lexer.folding());
+    }
+
+    // Starts over with new text. The snapshot must not change afterwards: pass a String or a
+    // PieceTable.copy().
+    public void load(CharSequence snapshot) {
+        current = new ArrayList<>();
+        enqueue(new Op(++version, snapshot, 0, 0, null));
+    }
+
+    // Mirrors an edit made to the text on the UI thread. line is the line holding offset and
+    // removedLines the number of line breaks in the replaced text.
+    public void edit(int offset, int removedLength, CharSequence inserted, int line, int removedLines) {
+        String text = inserted.toString();
+        int insertedLines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') insertedLines++;
+        }
+        // Keep the published tokens lined up with the text until the worker catches up; the
+        // edited line keeps its old tokens for now and new lines have none
+        if (line < current.size()) {
+            int[] first = current.get(line);
+            current.subList(line, Math.min(current.size(), line + removedLines + 1)).clear();
+            current.addAll(line, Collections.nCopies(insertedLines + 1, (int[]) null));
+            current.set(line, first);
+        }
+        enqueue(new Op(++version, null, offset, removedLength, text));
+    }
+
+    // True when the published tokens describe exactly the current text
+    public boolean isCurrent() {
+        return publishedVersion == version;
+    }
+
+    // Line-relative (type, start, end) triples for a line, or null if it has not been lexed
+    public int[] lineTokens(int line) {
+        return line >= 0 && line < current.size() ? current.get(line) : null;
+    }
+
+    // Bracket structure of the current text, or null while an edit is still being lexed
+    public BracketIndex bracketIndex() {
+        if (!isCurrent()) return null;
+        if (bracketsReloaded) {
+            bracketIndex.rebuild(currentBrackets);
+        } else if (bracketsChanged[0] >= 0) {
+            bracketIndex.sync(currentBrackets, bracketsChanged[0], bracketsChanged[1], bracketsChanged[2]);
+        }
+        bracketsReloaded = false;
+        bracketsChanged[0] = -1;
+        bracketsChanged[2] = 0;
+        return bracketIndex;
+    }
+
+    public void shutdown() {
+        closed = true;
+        pending.clear();
+        worker.shutdownNow();
+    }
+
+    private void enqueue(Op op) {
+        if (closed) return;
+        pending.add(op);
+        if (scheduled.compareAndSet(false, true)) {
+            worker.schedule(this::drain, op.load != null ? 0 : debounce.delay(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publish(int batchVersion, int[][] batch, int[][] bracketBatch, boolean loaded, int[] batchChanged) {
+        // The index catches up on a later batch's lists, so what this one changed counts even
+        // if the batch itself is dropped
+        if (loaded) {
+            bracketsReloaded = true;
+        } else if (batchChanged[0] >= 0) {
+            widen(bracketsChanged, batchChanged[0], batchChanged[1] - batchChanged[2], batchChanged[1]);
+        }
+        // A newer batch is already on its way if the text moved on in the meantime
+        if (closed || batchVersion != version) return;
+        current = new ArrayList<>(Arrays.asList(batch));
+        currentBrackets = new ArrayList<>(Arrays.asList(bracketBatch));
+        publishedVersion = batchVersion;
+        listener.onTokensChanged();
+    }
+
+    // Worker thread: applies every queued edit, then re-lexes what they touched in one pass
+    private void drain() {
+        scheduled.set(false);
+        long started = System.nanoTime();
+        int last = -1;
+        boolean loaded = false;
+        for (Op op = pending.poll(); op != null; op = pending.poll()) {
+            if (op.load != null) {
+                text = op.load instanceof PieceTable ? (PieceTable) op.load : new PieceTable(op.load.toString());
+                lines = new LineIndex(text);
+                highlighter = new SyntaxHighlighter(lexer);
+                highlighter.reset(lines.lineCount());
+                tokens = new ArrayList<>(Collections.nCopies(lines.lineCount(), (int[]) null));
+                brackets = new ArrayList<>(Collections.nCopies(lines.lineCount(), (int[]) null));
+                loaded = true;
+            } else if (text != null) {
+                applyEdit(op);
+            }
+            last = op.version;
+        }
+        if (last < 0 || highlighter == null) return;
+
+        boolean lexingAll = loaded;
+        SyntaxHighlighter.LineSink sink = (line, start, end, lineTokens) -> {
+            int[] relative = NO_TOKENS;
+            if (lineTokens.count() > 0) {
+                relative = new int[lineTokens.count() * 3];
+                for (int i = 0; i < lineTokens.count(); i++) {
+                    relative[3 * i] = lineTokens.type(i);
+                    relative[3 * i + 1] = lineTokens.start(i) - start;
+                    relative[3 * i + 2] = lineTokens.end(i) - start;
+                }
+            }
+            int[] old = tokens.get(line);
+            if (old == null || !Arrays.equals(old, relative)) {
+                tokens.set(line, relative);
+            }
+            int[] lineBrackets = BracketIndex.scanLine(text, start, end, lineTokens, lexer.folding());
+            int[] oldBrackets = brackets.get(line);
+            if (oldBrackets == null || !Arrays.equals(oldBrackets, lineBrackets)) {
+                brackets.set(line, lineBrackets);
+                // A load rebuilds the index anyway, and runs the sink on several threads
+                if (!lexingAll) widen(changed, line, line + 1, line + 1);
+            }
+        };
+        if (loaded) {
+            // Lines are only ever set, never added or removed, so the sink is safe to call from
+            // the pool. The text is the snapshot handed over through the queue (a String or a
+            // PieceTable.copy()); only this thread edits it, and not until lexAll has returned,
+            // so the pool only ever reads it.
+            highlighter.lexAll(text, lines, sink, ForkJoinPool.commonPool());
+        } else {
+            highlighter.update(text, lines, sink);
+        }
+        int batchVersion = last;
+        int[][] batch = tokens.toArray(new int[0][]);
+        int[][] bracketBatch = brackets.toArray(new int[0][]);
+        if (!loaded) {
+            // A load is a one-off; only edit batches say how often lexing can keep up
+            debounce.record(System.nanoTime() - started);
+        }
+        int[] batchChanged = changed.clone();
+        changed[0] = -1;
+        changed[2] = 0;
+        handler.post(() -> publish(batchVersion, batch, bracketBatch, lexingAll, batchChanged));
+    }
+
+    private void applyEdit(Op op) {
+        int line = lines.lineOfOffset(op.offset);
+        int removedLines = lines.lineOfOffset(op.offset + op.removedLength) - line;
+        lines.update(op.offset, op.removedLength, op.inserted);
+        text.replace(op.offset, op.offset + op.removedLength, op.inserted);
+        int insertedLines = lines.lineOfOffset(op.offset + op.inserted.length()) - line;
+        highlighter.linesChanged(line, removedLines, insertedLines);
+        tokens.subList(line, line + removedLines + 1).clear();
+        tokens.addAll(line, Collections.nCopies(insertedLines + 1, (int[]) null));
+        brackets.subList(line, line + removedLines + 1).clear();
+        brackets.addAll(line, Collections.nCopies(insertedLines + 1, (int[]) null));
+        widen(changed, line, line + removedLines + 1, line + insertedLines + 1);
+    }
+
+    // Grows a changed range {from, to, delta} - lines [from, to) are new and delta lines were
+    // added in all, from = -1 when empty - by lines [from, oldTo) being replaced by [from, newTo)
+    private static void widen(int[] range, int from, int oldTo, int newTo) {
+        if (range[0] < 0) {
+            range[0] = from;
+            range[1] = newTo;
+        } else {
+            range[0] = Math.min(range[0], from);
+            range[1] = Math.max(range[1], oldTo) + newTo - oldTo;
+        }
+        range[2] += newTo - oldTo;
+    }
+}
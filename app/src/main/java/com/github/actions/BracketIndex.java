@@ -0,0 +1,375 @@
+package com.github.actions;
+
+import java.util.List;
+
+// Bracket structure of a document, built from the lexer's tokens so brackets inside strings
+// and comments do not count. Each line has a sorted list of its brackets plus a summary of
+// the depth changes along it: the net change, the lowest point reached from the start and
+// the highest point reached counting back from the end. A segment tree over the lines
+// combines the summaries, so finding where the depth returns to a level skips whole runs of
+// lines at once and every query is O(log n) in the number of lines.
+//
+// Markup is indexed by element instead: an opening tag counts as an opener and a closing or
+// self-closing tag as a closer. The tree also keeps each line's indentation, which is what
+// folds indentation-based languages.
+//
+// Positions are packed (line, column) pairs, see position(). Matching is by depth: a closer
+// of a different kind than its opener is reported as no match.
+public class BracketIndex {
+    private static final String BRACKETS = "([{)]}";
+    private static final int TAG_OPEN = 6;
+    private static final int TAG_CLOSE = 7;
+    private static final int NONE = 1 << 29; // Extreme of a summary with no brackets
+    private static final int HEADER = 4;
+    private static final java.util.Set<String> VOID_ELEMENTS = new java.util.HashSet<>(java.util.Arrays.asList(
+        "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "source", "track", "wbr"));
+
+    // Per line: net depth change, lowest prefix, highest suffix, indentation (NONE when blank),
+    // then column << 3 | kind, where kinds 0-2 open and 3-5 close the brackets in BRACKETS
+    static final int[] NO_BRACKETS = {0, NONE, -NONE, NONE};
+    // Shared by the many lines that are only indented text
+    private static final int[][] INDENT_ONLY = new int[64][];
+
+    static {
+        for (int indent = 0; indent < INDENT_ONLY.length; indent++) {
+            INDENT_ONLY[indent] = new int[] {0, NONE, -NONE, indent};
+        }
+    }
+
+    private final int folding;
+    private int[][] lines = {NO_BRACKETS};
+    private int lineCount;
+    private int size = 1; // Leaves in the tree, a power of two
+    private int[] sum = new int[2];
+    private int[] minPrefix = {NONE, NONE};
+    private int[] maxSuffix = {-NONE, -NONE};
+    private int[] minIndent = {NONE, NONE};
+
+    // folding is one of SyntaxLexer.FOLD_*
+    public BracketIndex(int folding) {
+        this.folding = folding;
+    }
+
+    public static long position(int line, int column) {
+        return (long) line << 32 | column;
+    }
+
+    public static int lineOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    public static int columnOf(long position) {
+        return (int) position;
+    }
+
+    // Brackets (or tags) of text[start, end) that lie outside string and comment tokens
+    static int[] scanLine(CharSequence text, int start, int end, SyntaxLexer.Tokens tokens, int folding) {
+        int indent = 0;
+        int first = start;
+        while (first < end && (text.charAt(first) == ' ' || text.charAt(first) == '\t')) {
+            indent = text.charAt(first) == '\t' ? (indent / 4 + 1) * 4 : indent + 1;
+            first++;
+        }
+        if (first == end) indent = NONE;
+
+        int[] result = null;
+        int count = 0;
+        int token = 0;
+        boolean inVoidTag = false;
+        for (int i = first; i < end; i++) {
+            while (token < tokens.count() && tokens.end(token) <= i) token++;
+            if (token < tokens.count() && tokens.start(token) <= i
+                    && (tokens.type(token) == SyntaxLexer.STRING || tokens.type(token) == SyntaxLexer.COMMENT)) {
+                i = tokens.end(token) - 1;
+                continue;
+            }
+            char c = text.charAt(i);
+            int kind = -1;
+            if (folding != SyntaxLexer.FOLD_TAGS) {
+                kind = BRACKETS.indexOf(c);
+            } else if (c == '<' && i + 1 < end && text.charAt(i + 1) == '/') {
+                kind = TAG_CLOSE;
+            } else if (c == '<' && i + 1 < end && Character.isLetter(text.charAt(i + 1))) {
+                int nameEnd = i + 1;
+                while (nameEnd < end && (Character.isLetterOrDigit(text.charAt(nameEnd)) || text.charAt(nameEnd) == '-'
+                        || text.charAt(nameEnd) == ':')) {
+                    nameEnd++;
+                }
+                inVoidTag = VOID_ELEMENTS.contains(text.subSequence(i + 1, nameEnd).toString().toLowerCase());
+                if (!inVoidTag) kind = TAG_OPEN;
+            } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '>' && !inVoidTag) {
+                kind = TAG_CLOSE;
+            } else if (c == '>') {
+                inVoidTag = false;
+            }
+            if (kind < 0) continue;
+            if (result == null) {
+                result = new int[HEADER + 4];
+            } else if (HEADER + count == result.length) {
+                result = java.util.Arrays.copyOf(result, result.length * 2);
+            }
+            result[HEADER + count++] = (i - start) << 3 | kind;
+        }
+        if (result == null) {
+            if (indent == NONE) return NO_BRACKETS;
+            return indent < INDENT_ONLY.length ? INDENT_ONLY[indent] : new int[] {0, NONE, -NONE, indent};
+        }
+        result = java.util.Arrays.copyOf(result, HEADER + count);
+        int depth = 0;
+        int low = NONE;
+        for (int k = HEADER; k < result.length; k++) {
+            depth += delta(result, k);
+            low = Math.min(low, depth);
+        }
+        int high = -NONE;
+        int suffix = 0;
+        for (int k = result.length - 1; k >= HEADER; k--) {
+            suffix += delta(result, k);
+            high = Math.max(high, suffix);
+        }
+        result[0] = depth;
+        result[1] = low;
+        result[2] = high;
+        result[3] = indent;
+        return result;
+    }
+
+    // Brings the tree in line with the per-line bracket lists after lines [from, to) changed
+    // and delta lines were added in all, so the lines after to moved down by delta. Only the
+    // changed leaves are refilled; moved ones are shifted as a block.
+    public void sync(List<int[]> current, int from, int to, int delta) {
+        int n = current.size();
+        if (n > size || n != lineCount + delta || from < 0 || to > n) {
+            rebuild(current);
+            return;
+        }
+        int end = to;
+        if (delta != 0) {
+            int oldTo = to - delta;
+            int moved = lineCount - oldTo;
+            System.arraycopy(lines, oldTo, lines, to, moved);
+            System.arraycopy(sum, size + oldTo, sum, size + to, moved);
+            System.arraycopy(minPrefix, size + oldTo, minPrefix, size + to, moved);
+            System.arraycopy(maxSuffix, size + oldTo, maxSuffix, size + to, moved);
+            System.arraycopy(minIndent, size + oldTo, minIndent, size + to, moved);
+            for (int line = n; line < lineCount; line++) {
+                lines[line] = NO_BRACKETS;
+                setLeaf(size + line, NO_BRACKETS);
+            }
+            end = Math.max(n, lineCount);
+            lineCount = n;
+        }
+        for (int line = from; line < to; line++) {
+            int[] brackets = orEmpty(current.get(line));
+            if (brackets == lines[line]) continue;
+            lines[line] = brackets;
+            setLeaf(size + line, brackets);
+        }
+        // Every node above the refilled or shifted leaves, level by level
+        for (int lo = (size + from) >> 1, hi = (size + end - 1) >> 1; lo >= 1 && lo <= hi; lo >>= 1, hi >>= 1) {
+            for (int node = lo; node <= hi; node++) {
+                combine(node);
+            }
+        }
+    }
+
+    // Refills every leaf from the per-line bracket lists; the arrays are reused while the
+    // size fits
+    public void rebuild(List<int[]> current) {
+        lineCount = current.size();
+        int leaves = 1;
+        while (leaves < lineCount) leaves <<= 1;
+        if (leaves != size) {
+            size = leaves;
+            lines = new int[size][];
+            sum = new int[2 * size];
+            minPrefix = new int[2 * size];
+            maxSuffix = new int[2 * size];
+            minIndent = new int[2 * size];
+        }
+        for (int i = 0; i < size; i++) {
+            lines[i] = i < lineCount ? orEmpty(current.get(i)) : NO_BRACKETS;
+            setLeaf(size + i, lines[i]);
+        }
+        for (int node = size - 1; node >= 1; node--) {
+            combine(node);
+        }
+    }
+
+    // The bracket pairing with the one at (line, column), or -1 if there is none there, it is
+    // unmatched or it is matched by the wrong kind
+    public long match(int line, int column) {
+        if (line < 0 || line >= lineCount) return -1;
+        int[] brackets = lines[line];
+        int k = find(brackets, column);
+        if (k >= brackets.length || column(brackets, k) != column) return -1;
+        long partner = delta(brackets, k) > 0 ? findClose(line, k + 1) : findOpen(line, k - 1);
+        if (partner < 0) return -1;
+        int[] other = lines[lineOf(partner)];
+        int otherKind = other[find(other, columnOf(partner))] & 7;
+        return otherKind == pairOf(brackets[k] & 7) ? partner : -1;
+    }
+
+    // Innermost opener still open at (line, column), or -1 at the top level
+    public long enclosingOpen(int line, int column) {
+        if (line < 0 || line >= lineCount) return -1;
+        return findOpen(line, find(lines[line], column) - 1);
+    }
+
+    // Closer of the innermost block open at (line, column), or -1 at the top level
+    public long enclosingClose(int line, int column) {
+        if (line < 0 || line >= lineCount) return -1;
+        return findClose(line, find(lines[line], column));
+    }
+
+    // Last line hidden when the block starting on line is folded, or -1 if none starts there.
+    // A bracket block keeps its closing line visible; an indented block hides everything
+    // indented deeper, up to its last non-blank line.
+    public int foldEnd(int line) {
+        if (line < 0 || line >= lineCount) return -1;
+        int[] brackets = lines[line];
+        if (folding == SyntaxLexer.FOLD_INDENT) {
+            int indent = brackets[3];
+            if (indent == NONE) return -1;
+            int next = firstIndentedAtMost(1, 0, size, line + 1, indent);
+            int last = (next < 0 ? lineCount : next) - 1;
+            while (last > line && lines[last][3] == NONE) last--;
+            return last > line ? last : -1;
+        }
+        // The first opener on the line whose partner is on a later line
+        for (int k = HEADER; k < brackets.length; k++) {
+            if (delta(brackets, k) < 0) continue;
+            long partner = findClose(line, k + 1);
+            if (partner >= 0 && lineOf(partner) > line + 1) return lineOf(partner) - 1;
+        }
+        return -1;
+    }
+
+    // First closer at or after bracket k of line that takes the depth below where it started
+    private long findClose(int line, int k) {
+        int depth = 0;
+        int[] brackets = lines[line];
+        for (; k < brackets.length; k++) {
+            depth += delta(brackets, k);
+            if (depth < 0) return position(line, column(brackets, k));
+        }
+        int[] running = {depth};
+        int target = descendForward(1, 0, size, line + 1, running);
+        if (target < 0 || target >= lineCount) return -1;
+        brackets = lines[target];
+        depth = running[0];
+        for (k = HEADER; k < brackets.length; k++) {
+            depth += delta(brackets, k);
+            if (depth < 0) return position(target, column(brackets, k));
+        }
+        return -1;
+    }
+
+    // Last opener at or before bracket k of line that takes the depth, counted backwards,
+    // above where it started
+    private long findOpen(int line, int k) {
+        int depth = 0;
+        int[] brackets = lines[line];
+        for (; k >= HEADER; k--) {
+            depth += delta(brackets, k);
+            if (depth > 0) return position(line, column(brackets, k));
+        }
+        int[] running = {depth};
+        int target = descendBackward(1, 0, size, line, running);
+        if (target < 0) return -1;
+        brackets = lines[target];
+        depth = running[0];
+        for (k = brackets.length - 1; k >= HEADER; k--) {
+            depth += delta(brackets, k);
+            if (depth > 0) return position(target, column(brackets, k));
+        }
+        return -1;
+    }
+
+    // First line at or after from, in node's range [lo, hi), where running[0] plus the depth
+    // changes along the way drops below zero; running[0] accumulates the lines passed over
+    private int descendForward(int node, int lo, int hi, int from, int[] running) {
+        if (hi <= from) return -1;
+        if (lo >= from && running[0] + minPrefix[node] >= 0) {
+            running[0] += sum[node];
+            return -1;
+        }
+        if (hi - lo == 1) return lo;
+        int mid = (lo + hi) >>> 1;
+        int found = descendForward(2 * node, lo, mid, from, running);
+        return found >= 0 ? found : descendForward(2 * node + 1, mid, hi, from, running);
+    }
+
+    // Last line before to, in node's range [lo, hi), where running[0] plus the depth changes
+    // counted backwards rises above zero
+    private int descendBackward(int node, int lo, int hi, int to, int[] running) {
+        if (lo >= to) return -1;
+        if (hi <= to && running[0] + maxSuffix[node] <= 0) {
+            running[0] += sum[node];
+            return -1;
+        }
+        if (hi - lo == 1) return lo;
+        int mid = (lo + hi) >>> 1;
+        int found = descendBackward(2 * node + 1, mid, hi, to, running);
+        return found >= 0 ? found : descendBackward(2 * node, lo, mid, to, running);
+    }
+
+    // First non-blank line at or after from, in node's range [lo, hi), indented at most indent
+    private int firstIndentedAtMost(int node, int lo, int hi, int from, int indent) {
+        if (hi <= from || minIndent[node] > indent) return -1;
+        if (hi - lo == 1) return lo;
+        int mid = (lo + hi) >>> 1;
+        int found = firstIndentedAtMost(2 * node, lo, mid, from, indent);
+        return found >= 0 ? found : firstIndentedAtMost(2 * node + 1, mid, hi, from, indent);
+    }
+
+    private void setLeaf(int node, int[] brackets) {
+        sum[node] = brackets[0];
+        minPrefix[node] = brackets[1];
+        maxSuffix[node] = brackets[2];
+        minIndent[node] = brackets[3];
+    }
+
+    private void combine(int node) {
+        int left = 2 * node;
+        int right = left + 1;
+        sum[node] = sum[left] + sum[right];
+        minPrefix[node] = Math.min(minPrefix[left], sum[left] + minPrefix[right]);
+        maxSuffix[node] = Math.max(maxSuffix[right], sum[right] + maxSuffix[left]);
+        minIndent[node] = Math.min(minIndent[left], minIndent[right]);
+    }
+
+    // Index of the first bracket at or after column, or brackets.length
+    private static int find(int[] brackets, int column) {
+        int lo = HEADER;
+        int hi = brackets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (column(brackets, mid) < column) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int column(int[] brackets, int k) {
+        return brackets[k] >>> 3;
+    }
+
+    private static int delta(int[] brackets, int k) {
+        int kind = brackets[k] & 7;
+        return kind < 3 || kind == TAG_OPEN ? 1 : -1;
+    }
+
+    private static int pairOf(int kind) {
+        if (kind == TAG_OPEN) return TAG_CLOSE;
+        if (kind == TAG_CLOSE) return TAG_OPEN;
+        return kind < 3 ? kind + 3 : kind - 3;
+    }
+
+    private static int[] orEmpty(int[] brackets) {
+        return brackets != null ? brackets : NO_BRACKETS;
+    }
+}
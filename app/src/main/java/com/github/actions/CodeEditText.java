@@ -0,0 +1,141 @@
+package com.github.actions;
+
+import android.text.Spanned;
+
+// EditText with protected regions: ranges of the text the user can neither edit nor put the
+// caret in, like the load buttons around a chunk. A region is a span on the text, so it moves
+// with edits and goes away with the text it was set on. It is enforced only when something
+// happens: an InputFilter refuses edits that touch a region, and selection changes are moved
+// out of one. A region at the very start or end of the text also covers that edge.
+// Pasted text, from the menu or committed whole by an input method, is offered to a paste
+// listener first, which can apply it some cheaper way than an Editable edit.
+public class CodeEditText extends android.widget.EditText {
+    private static final class ProtectedSpan {}
+
+    public interface OnPasteListener {
+        // Returns true if the text was applied in place of the selection
+        boolean onPaste(CharSequence text);
+    }
+
+    private Runnable onInput;
+    private OnPasteListener onPaste;
+
+    public CodeEditText(android.content.Context context) {
+        super(context);
+        setFilters(new android.text.InputFilter[] { this::filter });
+    }
+
+    // Runs as each input method event arrives, before it changes the text
+    public void setOnInputListener(Runnable listener) {
+        onInput = listener;
+    }
+
+    public void setOnPasteListener(OnPasteListener listener) {
+        onPaste = listener;
+    }
+
+    @Override
+    public boolean onTextContextMenuItem(int id) {
+        if ((id == android.R.id.paste || id == android.R.id.pasteAsPlainText) && onPaste != null) {
+            android.content.ClipboardManager clipboard = (android.content.ClipboardManager)
+                getContext().getSystemService(android.content.Context.CLIPBOARD_SERVICE);
+            if (clipboard.hasPrimaryClip() && clipboard.getPrimaryClip().getItemCount() > 0) {
+                CharSequence text = clipboard.getPrimaryClip().getItemAt(0).coerceToText(getContext());
+                if (text != null && onPaste.onPaste(text.toString())) return true;
+            }
+        }
+        return super.onTextContextMenuItem(id);
+    }
+
+    @Override
+    public android.view.inputmethod.InputConnection onCreateInputConnection(android.view.inputmethod.EditorInfo outAttrs) {
+        android.view.inputmethod.InputConnection connection = super.onCreateInputConnection(outAttrs);
+        if (connection == null) return null;
+        return new android.view.inputmethod.InputConnectionWrapper(connection, true) {
+            @Override
+            public boolean commitText(CharSequence text, int newCursorPosition) {
+                input();
+                // Clipboard suggestions arrive as a commit; one over a composing word is left alone
+                if (onPaste != null && text != null && text.length() > 1
+                        && android.view.inputmethod.BaseInputConnection.getComposingSpanStart(getText()) < 0
+                        && onPaste.onPaste(text)) {
+                    return true;
+                }
+                return super.commitText(text, newCursorPosition);
+            }
+
+            @Override
+            public boolean setComposingText(CharSequence text, int newCursorPosition) {
+                input();
+                return super.setComposingText(text, newCursorPosition);
+            }
+
+            @Override
+            public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+                input();
+                return super.deleteSurroundingText(beforeLength, afterLength);
+            }
+
+            @Override
+            public boolean sendKeyEvent(android.view.KeyEvent event) {
+                if (event.getAction() == android.view.KeyEvent.ACTION_DOWN) input();
+                return super.sendKeyEvent(event);
+            }
+        };
+    }
+
+    private void input() {
+        if (onInput != null) onInput.run();
+    }
+
+    // Protects [start, end) of the current text until it is replaced
+    public void protect(int start, int end) {
+        if (start >= end) return;
+        getText().setSpan(new ProtectedSpan(), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        setSelection(snap(getText(), getSelectionStart()), snap(getText(), getSelectionEnd()));
+    }
+
+    @Override
+    protected void onSelectionChanged(int selStart, int selEnd) {
+        super.onSelectionChanged(selStart, selEnd);
+        // Also called while the view is constructed, before there is any text
+        CharSequence text = getText();
+        if (!(text instanceof Spanned) || selStart < 0) return;
+        int start = snap((Spanned) text, selStart);
+        int end = snap((Spanned) text, selEnd);
+        if (start != selStart || end != selEnd) setSelection(start, end);
+    }
+
+    private CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart, int dend) {
+        for (ProtectedSpan span : dest.getSpans(dstart, dend, ProtectedSpan.class)) {
+            int regionStart = dest.getSpanStart(span);
+            int regionEnd = dest.getSpanEnd(span);
+            boolean touches = dstart == dend
+                ? isInside(regionStart, regionEnd, dstart, dest.length())
+                : dstart < regionEnd && dend > regionStart;
+            // Replacing the range with itself leaves the text as it was
+            if (touches) return dest.subSequence(dstart, dend);
+        }
+        return null;
+    }
+
+    // Moves a caret position out of any region, to the side where the editable text is
+    private static int snap(Spanned text, int position) {
+        int length = text.length();
+        for (ProtectedSpan span : text.getSpans(position, position, ProtectedSpan.class)) {
+            int regionStart = text.getSpanStart(span);
+            int regionEnd = text.getSpanEnd(span);
+            if (!isInside(regionStart, regionEnd, position, length)) continue;
+            if (regionStart == 0) return regionEnd;
+            if (regionEnd == length) return regionStart;
+            return regionEnd - position < position - regionStart ? regionEnd : regionStart;
+        }
+        return position;
+    }
+
+    private static boolean isInside(int regionStart, int regionEnd, int position, int length) {
+        return (regionStart < position && position < regionEnd)
+            || (position == regionStart && regionStart == 0)
+            || (position == regionEnd && regionEnd == length);
+    }
+}
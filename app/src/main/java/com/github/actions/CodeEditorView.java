@@ -0,0 +1,1089 @@
+package com.github.actions;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.InputType;
+import android.view.GestureDetector;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.OverScroller;
+
+// Editor view that draws straight from a PieceTable and its LineIndex. Only the lines in
+// the viewport are read and drawn, so memory use and frame time do not grow with the file.
+// It has its own cursor, selection, scrolling and IME connection. Blocks can be folded from
+// the gutter; a folded block takes no rows, so layout works on screen rows rather than lines.
+// A very long line, like a minified bundle, is cut into segments a screen wide, each on a row
+// of its own, so a row never reads or draws more than one segment of it.
+public class CodeEditorView extends View {
+    public interface OnEditListener {
+        // Called after each change to the document, with the text it replaced
+        void onEdit(int start, CharSequence removed, CharSequence inserted);
+
+        // Called once for the changes made between beginBatchEdit and endBatchEdit, instead of
+        // onEdit for each: the range from start, which held removedLength characters and
+        // removedLines line breaks, now holds inserted
+        void onBatchEdit(int start, int removedLength, int removedLines, CharSequence inserted);
+    }
+
+    private static final int TAB_WIDTH = 4;
+    private static final int BLINK_INTERVAL = 500;
+    private static final int LONG_LINE_CHARS = 4096; // Longer lines are shown in segments
+    private static final int MIN_SEGMENT_CHARS = 40;
+
+    private PieceTable document;
+    private LineIndex lines;
+    private OnEditListener editListener;
+    private Runnable onInput;
+    private boolean editable = true;
+    private BackgroundHighlighter highlighter;
+    private int[] tokenColors;
+    private int textColor;
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gutterTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gutterPaint = new Paint();
+    private final Paint selectionPaint = new Paint();
+    private final Paint currentLinePaint = new Paint();
+    private final Paint cursorPaint = new Paint();
+    private final Paint foldPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private float charWidth;
+    private int lineHeight;
+    private float baseline;
+    private int gutterWidth;
+    private int padding;
+    private int widestColumns;
+
+    // selectionEnd is the cursor; selectionStart is the anchor and may be on either side
+    private int selectionStart;
+    private int selectionEnd;
+    private int composingStart = -1;
+    private int composingEnd = -1;
+
+    // Range changed by the batch in progress, in the current text, or batchStart -1
+    private int batchDepth;
+    private int batchStart = -1;
+    private int batchEnd;
+    private int batchDelta; // Characters the batch has added so far
+    private int batchLineCount; // Line count before the batch
+    private boolean cursorVisible = true;
+
+    private final OverScroller scroller;
+    private final GestureDetector gestures;
+    private final StringBuilder lineText = new StringBuilder();
+    private char[] drawBuffer = new char[256];
+
+    // Folded blocks, sorted and disjoint: lines foldFirst[i]..foldLast[i] are hidden, and
+    // hiddenBefore[i] counts the lines hidden by the folds before fold i
+    private int[] foldFirst = new int[0];
+    private int[] foldLast = new int[0];
+    private int[] hiddenBefore = {0};
+
+    // Lines longer than LONG_LINE_CHARS, sorted; each takes one row per segmentChars characters.
+    // extraRowsBefore[i] counts the rows the visible long lines before longLines[i] add.
+    private int[] longLines = new int[0];
+    private int[] extraRowsBefore = {0};
+    private int segmentChars = MIN_SEGMENT_CHARS;
+
+    private final Runnable blink = new Runnable() {
+        @Override
+        public void run() {
+            cursorVisible = !cursorVisible;
+            invalidate();
+            postDelayed(this, BLINK_INTERVAL);
+        }
+    };
+
+    public CodeEditorView(Context context) {
+        super(context);
+        setFocusable(true);
+        setFocusableInTouchMode(true);
+        padding = (int) (8 * context.getResources().getDisplayMetrics().density);
+        textPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+        gutterTextPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+        gutterTextPaint.setTextAlign(Paint.Align.RIGHT);
+        foldPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+        selectionPaint.setColor(0x6633B5E5);
+        setColors(0xFFE0E0E0, 0xFF1E1E1E, 0xFF666666, 0xFF2D2D2D);
+        setTextSize(14);
+        scroller = new OverScroller(context);
+        gestures = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                if (document != null && e.getX() < gutterWidth) {
+                    toggleFold(lineAt((int) ((e.getY() + getScrollY() - padding) / lineHeight)));
+                    return true;
+                }
+                requestFocus();
+                showKeyboard();
+                setSelection(offsetAt(e.getX(), e.getY()));
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                selectWordAt(offsetAt(e.getX(), e.getY()));
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float dx, float dy) {
+                scrollClamped(getScrollX() + (int) dx, getScrollY() + (int) dy);
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float vx, float vy) {
+                scroller.fling(getScrollX(), getScrollY(), (int) -vx, (int) -vy, 0, maxScrollX(), 0, maxScrollY());
+                postInvalidateOnAnimation();
+                return true;
+            }
+        });
+    }
+
+    public void setDocument(PieceTable document, LineIndex lines) {
+        this.document = document;
+        this.lines = lines;
+        composingStart = composingEnd = -1;
+        selectionStart = Math.min(selectionStart, document.length());
+        selectionEnd = Math.min(selectionEnd, document.length());
+        longLines = findLongLines(lines, 0, lines.lineCount() - 1);
+        setFolds(new int[0], new int[0]);
+        updateGutterWidth();
+        // The widest line seen so far belonged to the old document; drawing remeasures
+        widestColumns = 0;
+        scroller.forceFinished(true);
+        scrollClamped(0, getScrollY());
+        restartInput();
+        invalidate();
+    }
+
+    // Colors lines with the highlighter's latest tokens; colors is indexed by token type
+    public void setHighlighter(BackgroundHighlighter highlighter, int[] colors) {
+        this.highlighter = highlighter;
+        tokenColors = colors;
+        invalidate();
+    }
+
+    public void setOnEditListener(OnEditListener listener) {
+        editListener = listener;
+    }
+
+    // Runs as each input method edit arrives, before it changes the document; key events
+    // reach the key listener instead
+    public void setOnInputListener(Runnable listener) {
+        onInput = listener;
+    }
+
+    public void setEditable(boolean editable) {
+        this.editable = editable;
+    }
+
+    public void setTextSize(float sp) {
+        float px = sp * getContext().getResources().getDisplayMetrics().scaledDensity;
+        textPaint.setTextSize(px);
+        gutterTextPaint.setTextSize(px);
+        foldPaint.setTextSize(px);
+        charWidth = textPaint.measureText("M");
+        Paint.FontMetrics metrics = textPaint.getFontMetrics();
+        lineHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+        baseline = -metrics.ascent;
+        updateGutterWidth();
+        updateSegmentChars();
+        invalidate();
+    }
+
+    public void setColors(int text, int background, int gutterText, int gutterBackground) {
+        textColor = text;
+        textPaint.setColor(text);
+        cursorPaint.setColor(text);
+        gutterTextPaint.setColor(gutterText);
+        foldPaint.setColor(gutterText);
+        gutterPaint.setColor(gutterBackground);
+        currentLinePaint.setColor(gutterBackground);
+        setBackgroundColor(background);
+        invalidate();
+    }
+
+    public int getSelectionStart() {
+        return Math.min(selectionStart, selectionEnd);
+    }
+
+    public int getSelectionEnd() {
+        return Math.max(selectionStart, selectionEnd);
+    }
+
+    public void setSelection(int offset) {
+        setSelection(offset, offset);
+    }
+
+    public void setSelection(int start, int end) {
+        if (document == null) return;
+        selectionStart = clamp(start, 0, document.length());
+        selectionEnd = clamp(end, 0, document.length());
+        composingStart = composingEnd = -1;
+        scrollToCursor();
+        selectionChanged();
+    }
+
+    // Moves the cursor to the start of a zero-based line and brings it into view
+    public void goToLine(int line) {
+        if (lines == null) return;
+        setSelection(lines.lineStart(clamp(line, 0, lines.lineCount() - 1)));
+    }
+
+    // Folds the block starting on a line, or unfolds it if it is folded. Blocks come from the
+    // highlighter's bracket index, so nothing folds until the file has been lexed.
+    public void toggleFold(int line) {
+        if (document == null) return;
+        int i = foldsUpTo(line + 1);
+        if (i > 0 && foldFirst[i - 1] == line + 1) {
+            removeFolds(i - 1, i);
+        } else {
+            BracketIndex index = highlighter != null ? highlighter.bracketIndex() : null;
+            int last = index != null ? index.foldEnd(line) : -1;
+            if (last <= line) return;
+            // Folds inside the new one are absorbed by it
+            int from = foldsUpTo(line);
+            int to = foldsUpTo(last);
+            int[] first = new int[foldFirst.length - (to - from) + 1];
+            int[] lastLines = new int[first.length];
+            System.arraycopy(foldFirst, 0, first, 0, from);
+            System.arraycopy(foldLast, 0, lastLines, 0, from);
+            first[from] = line + 1;
+            lastLines[from] = last;
+            System.arraycopy(foldFirst, to, first, from + 1, foldFirst.length - to);
+            System.arraycopy(foldLast, to, lastLines, from + 1, foldLast.length - to);
+            setFolds(first, lastLines);
+            // A cursor inside the block moves to the end of its first line
+            int cursorLine = lines.lineOfOffset(selectionEnd);
+            if (cursorLine > line && cursorLine <= last) {
+                selectionStart = selectionEnd = lines.lineEnd(line);
+                selectionChanged();
+            }
+        }
+        scrollClamped(getScrollX(), getScrollY());
+        invalidate();
+    }
+
+    // Replaces a range of the document, keeping the line index in step
+    public void replace(int start, int end, CharSequence text) {
+        if (document == null) return;
+        boolean batched = batchDepth > 0;
+        CharSequence removed = editListener != null && !batched && end > start ? document.getText(start, end) : "";
+        int line = lines.lineOfOffset(start);
+        int removedLines = lines.lineOfOffset(end) - line;
+        lines.update(start, end - start, text);
+        document.replace(start, end, text);
+        int insertedLines = lines.lineOfOffset(start + text.length()) - line;
+        longLinesChanged(line, removedLines, insertedLines);
+        if (foldFirst.length > 0) {
+            foldsChanged(line, removedLines, insertedLines);
+        }
+        selectionStart = selectionEnd = start + text.length();
+        if (composingStart >= 0) {
+            composingStart = composingEnd = -1;
+        }
+        int digits = String.valueOf(lines.lineCount()).length();
+        if (gutterWidth != gutterWidthFor(digits)) {
+            updateGutterWidth();
+        }
+        if (batched) {
+            extendBatch(start, end, text.length());
+            return;
+        }
+        if (editListener != null) editListener.onEdit(start, removed, text);
+        scrollToCursor();
+        selectionChanged();
+    }
+
+    // Replacements until endBatchEdit only touch the document and the line index; the
+    // listener, scrolling, the IME and drawing then catch up once for all of them
+    public void beginBatchEdit() {
+        if (batchDepth++ == 0) {
+            batchStart = -1;
+            batchDelta = 0;
+            batchLineCount = lines != null ? lines.lineCount() : 0;
+        }
+    }
+
+    public void endBatchEdit() {
+        if (--batchDepth > 0 || batchStart < 0) return;
+        int start = batchStart;
+        batchStart = -1;
+        if (editListener != null) {
+            int insertedLines = lines.lineOfOffset(batchEnd) - lines.lineOfOffset(start);
+            editListener.onBatchEdit(start, batchEnd - start - batchDelta,
+                insertedLines - (lines.lineCount() - batchLineCount), document.getText(start, batchEnd));
+        }
+        scrollToCursor();
+        selectionChanged();
+    }
+
+    // Grows the batch's range to take in a replacement of start..end by length characters.
+    // Everything changed so far lies inside the range, so its old length is its length now
+    // less what the batch has added.
+    private void extendBatch(int start, int end, int length) {
+        if (batchStart < 0) {
+            batchStart = start;
+            batchEnd = end;
+        } else {
+            batchStart = Math.min(batchStart, start);
+            batchEnd = Math.max(batchEnd, end);
+        }
+        batchEnd += length - (end - start);
+        batchDelta += length - (end - start);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (document == null || lineHeight == 0) return;
+        int scrollX = getScrollX();
+        int scrollY = getScrollY();
+        int firstRow = Math.max(0, (scrollY - padding) / lineHeight);
+        int lastRow = Math.min(rowCount() - 1, (scrollY + getHeight() - padding) / lineHeight);
+        float textLeft = gutterWidth + padding;
+        int firstColumn = Math.max(0, (int) ((scrollX - padding) / charWidth));
+        int lastColumn = firstColumn + (int) (getWidth() / charWidth) + 2;
+        int selMin = getSelectionStart();
+        int selMax = getSelectionEnd();
+        int cursorRow = cursorRow();
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int line = lineAt(row);
+            int segment = row - rowOf(line);
+            float top = padding + row * lineHeight;
+            int lineStart = lines.lineStart(line);
+            int start = segmentStart(line, segment);
+            int end = segmentEnd(line, segment);
+            boolean lastSegment = end == lines.lineEnd(line);
+
+            // Only the part of the row that can reach the viewport is read from the document
+            lineText.setLength(0);
+            document.appendRange(lineText, start, Math.min(end, start + lastColumn + 1));
+            int count = expandTabs(lineText, lastColumn);
+            widestColumns = Math.max(widestColumns, count);
+
+            if (row == cursorRow && selMin == selMax) {
+                canvas.drawRect(scrollX, top, scrollX + getWidth(), top + lineHeight, currentLinePaint);
+            }
+            if (selMin != selMax && selMax >= start && selMin <= end) {
+                float left = textLeft + columnOf(lineText, Math.max(selMin, start) - start) * charWidth;
+                float right = selMax > end
+                    ? textLeft + (count + (lastSegment ? 1 : 0)) * charWidth
+                    : textLeft + columnOf(lineText, selMax - start) * charWidth;
+                canvas.drawRect(left, top, right, top + lineHeight, selectionPaint);
+            }
+            int visibleFrom = Math.min(firstColumn, count);
+            int[] tokens = highlighter != null ? highlighter.lineTokens(line) : null;
+            if (tokens == null || tokens.length == 0) {
+                canvas.drawText(drawBuffer, visibleFrom, count - visibleFrom,
+                    textLeft + visibleFrom * charWidth, top + baseline, textPaint);
+            } else {
+                drawTokens(canvas, tokens, start - lineStart, visibleFrom, count, textLeft, top + baseline);
+            }
+
+            if (lastSegment && isFolded(line)) {
+                canvas.drawText(" \u22EF", textLeft + count * charWidth, top + baseline, foldPaint);
+            }
+
+            if (row == cursorRow && cursorVisible && isFocused()) {
+                float x = textLeft + columnOf(lineText, selectionEnd - start) * charWidth;
+                canvas.drawRect(x, top, x + Math.max(2, charWidth / 8), top + lineHeight, cursorPaint);
+            }
+        }
+
+        // Gutter stays fixed on the left while the text scrolls horizontally
+        canvas.drawRect(scrollX, scrollY, scrollX + gutterWidth, scrollY + getHeight(), gutterPaint);
+        BracketIndex index = highlighter != null ? highlighter.bracketIndex() : null;
+        for (int row = firstRow; row <= lastRow; row++) {
+            int line = lineAt(row);
+            // Rows that continue a long line get no number
+            if (row != rowOf(line)) continue;
+            float y = padding + row * lineHeight + baseline;
+            canvas.drawText(String.valueOf(line + 1), scrollX + gutterWidth - padding / 2f, y, gutterTextPaint);
+            if (isFolded(line)) {
+                canvas.drawText("\u25B8", scrollX + padding / 2f, y, foldPaint);
+            } else if (index != null && index.foldEnd(line) > line) {
+                canvas.drawText("\u25BE", scrollX + padding / 2f, y, foldPaint);
+            }
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return gestures.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollClamped(scroller.getCurrX(), scroller.getCurrY());
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateSegmentChars();
+        scrollClamped(getScrollX(), getScrollY());
+    }
+
+    @Override
+    protected void onFocusChanged(boolean focused, int direction, android.graphics.Rect previous) {
+        super.onFocusChanged(focused, direction, previous);
+        removeCallbacks(blink);
+        cursorVisible = true;
+        if (focused) postDelayed(blink, BLINK_INTERVAL);
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(blink);
+    }
+
+    @Override
+    public boolean onCheckIsTextEditor() {
+        return true;
+    }
+
+    @Override
+    public InputConnection onCreateInputConnection(EditorInfo outAttrs) {
+        outAttrs.inputType = InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS;
+        outAttrs.imeOptions = EditorInfo.IME_FLAG_NO_EXTRACT_UI | EditorInfo.IME_FLAG_NO_FULLSCREEN;
+        outAttrs.initialSelStart = getSelectionStart();
+        outAttrs.initialSelEnd = getSelectionEnd();
+        return new EditorInputConnection();
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (document == null) return super.onKeyDown(keyCode, event);
+        boolean shift = event.isShiftPressed();
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+                moveCursor(Math.max(0, selectionEnd - 1), shift);
+                return true;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                moveCursor(Math.min(document.length(), selectionEnd + 1), shift);
+                return true;
+            case KeyEvent.KEYCODE_DPAD_UP:
+                moveCursor(offsetOnRow(cursorRow() - 1), shift);
+                return true;
+            case KeyEvent.KEYCODE_DPAD_DOWN:
+                moveCursor(offsetOnRow(cursorRow() + 1), shift);
+                return true;
+            case KeyEvent.KEYCODE_PAGE_UP:
+                moveCursor(offsetOnRow(cursorRow() - visibleLines()), shift);
+                return true;
+            case KeyEvent.KEYCODE_PAGE_DOWN:
+                moveCursor(offsetOnRow(cursorRow() + visibleLines()), shift);
+                return true;
+            case KeyEvent.KEYCODE_MOVE_HOME:
+                moveCursor(lines.lineStart(lines.lineOfOffset(selectionEnd)), shift);
+                return true;
+            case KeyEvent.KEYCODE_MOVE_END:
+                moveCursor(lines.lineEnd(lines.lineOfOffset(selectionEnd)), shift);
+                return true;
+        }
+        if (event.isCtrlPressed()) {
+            switch (keyCode) {
+                case KeyEvent.KEYCODE_A:
+                    selectionStart = 0;
+                    selectionEnd = document.length();
+                    selectionChanged();
+                    return true;
+                case KeyEvent.KEYCODE_C:
+                    copySelection();
+                    return true;
+                case KeyEvent.KEYCODE_X:
+                    if (editable && copySelection()) replaceSelection("");
+                    return true;
+                case KeyEvent.KEYCODE_V:
+                    if (editable) paste();
+                    return true;
+            }
+            return super.onKeyDown(keyCode, event);
+        }
+        if (!editable) return super.onKeyDown(keyCode, event);
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DEL:
+                if (selectionStart != selectionEnd) {
+                    replaceSelection("");
+                } else if (selectionEnd > 0) {
+                    replace(selectionEnd - 1, selectionEnd, "");
+                }
+                return true;
+            case KeyEvent.KEYCODE_FORWARD_DEL:
+                if (selectionStart != selectionEnd) {
+                    replaceSelection("");
+                } else if (selectionEnd < document.length()) {
+                    replace(selectionEnd, selectionEnd + 1, "");
+                }
+                return true;
+            case KeyEvent.KEYCODE_ENTER:
+                replaceSelection("\n" + indentAfter(getSelectionStart()));
+                return true;
+            case KeyEvent.KEYCODE_TAB:
+                replaceSelection("    ");
+                return true;
+        }
+        int unicode = event.getUnicodeChar(event.getMetaState());
+        if (unicode > 0) {
+            replaceSelection(String.valueOf((char) unicode));
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    // Indent for a new line: the current line's leading whitespace, plus one level after { or :
+    private String indentAfter(int offset) {
+        int line = lines.lineOfOffset(offset);
+        int start = lines.lineStart(line);
+        int indent = 0;
+        while (start + indent < offset && (document.charAt(start + indent) == ' ' || document.charAt(start + indent) == '\t')) {
+            indent++;
+        }
+        // Looks back only over whitespace, which matters on a megabyte-long line
+        int last = offset - 1;
+        while (last >= start && Character.isWhitespace(document.charAt(last))) last--;
+        if (last >= start && (document.charAt(last) == '{' || document.charAt(last) == ':')) indent += 4;
+        return new String(new char[indent]).replace('\0', ' ');
+    }
+
+    private void replaceSelection(CharSequence text) {
+        replace(getSelectionStart(), getSelectionEnd(), text);
+    }
+
+    private void moveCursor(int offset, boolean extend) {
+        selectionEnd = offset;
+        if (!extend) selectionStart = offset;
+        composingStart = composingEnd = -1;
+        scrollToCursor();
+        selectionChanged();
+    }
+
+    private int cursorRow() {
+        int line = lines.lineOfOffset(selectionEnd);
+        return rowOf(line) + segmentOf(line, selectionEnd);
+    }
+
+    // Offset on another row at the cursor's current column
+    private int offsetOnRow(int row) {
+        int line = lineAt(row);
+        int segment = clamp(row - rowOf(line), 0, segmentCount(line) - 1);
+        int cursorLine = lines.lineOfOffset(selectionEnd);
+        int column = selectionEnd - segmentStart(cursorLine, segmentOf(cursorLine, selectionEnd));
+        return Math.min(segmentStart(line, segment) + column, rowEnd(line, segment));
+    }
+
+    private void selectWordAt(int offset) {
+        int start = offset;
+        int end = offset;
+        while (start > 0 && isWordChar(document.charAt(start - 1))) start--;
+        while (end < document.length() && isWordChar(document.charAt(end))) end++;
+        selectionStart = start;
+        selectionEnd = end;
+        selectionChanged();
+    }
+
+    private boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private boolean copySelection() {
+        if (selectionStart == selectionEnd) return false;
+        android.content.ClipboardManager clipboard = (android.content.ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        clipboard.setPrimaryClip(android.content.ClipData.newPlainText("code", document.getText(getSelectionStart(), getSelectionEnd())));
+        return true;
+    }
+
+    private void paste() {
+        android.content.ClipboardManager clipboard = (android.content.ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        if (clipboard.hasPrimaryClip() && clipboard.getPrimaryClip().getItemCount() > 0) {
+            CharSequence text = clipboard.getPrimaryClip().getItemAt(0).coerceToText(getContext());
+            if (text != null) replaceSelection(text);
+        }
+    }
+
+    private int offsetAt(float x, float y) {
+        if (document == null) return 0;
+        int row = (int) ((y + getScrollY() - padding) / lineHeight);
+        int line = lineAt(row);
+        int segment = clamp(row - rowOf(line), 0, segmentCount(line) - 1);
+        int column = Math.max(0, Math.round((x + getScrollX() - gutterWidth - padding) / charWidth));
+        int start = segmentStart(line, segment);
+        int end = rowEnd(line, segment);
+        lineText.setLength(0);
+        document.appendRange(lineText, start, Math.min(end, start + column + 1));
+        int visual = 0;
+        for (int i = 0; i < lineText.length(); i++) {
+            int next = lineText.charAt(i) == '\t' ? (visual / TAB_WIDTH + 1) * TAB_WIDTH : visual + 1;
+            if (next > column) return start + i + (column - visual > next - column ? 1 : 0);
+            visual = next;
+        }
+        return start + lineText.length();
+    }
+
+    // Draws the expanded row in runs: plain text between tokens, each token in its color.
+    // The row starts rowOffset characters into its line, where token offsets are counted from.
+    private void drawTokens(Canvas canvas, int[] tokens, int rowOffset, int visibleFrom, int count, float left, float y) {
+        int column = visibleFrom;
+        // Tokens ending before the row are skipped by a binary search, not a walk
+        int lo = 0;
+        int hi = tokens.length / 3;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[3 * mid + 2] <= rowOffset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = 3 * lo; i + 2 < tokens.length && column < count; i += 3) {
+            if (tokens[i + 1] - rowOffset >= lineText.length()) break;
+            int tokenStart = Math.max(column, Math.min(columnOf(lineText, tokens[i + 1] - rowOffset), count));
+            int tokenEnd = Math.min(columnOf(lineText, tokens[i + 2] - rowOffset), count);
+            if (tokenEnd <= tokenStart) continue;
+            drawRun(canvas, column, tokenStart, left, y, textColor);
+            drawRun(canvas, tokenStart, tokenEnd, left, y, tokenColors[tokens[i]]);
+            column = tokenEnd;
+        }
+        drawRun(canvas, column, count, left, y, textColor);
+        textPaint.setColor(textColor);
+    }
+
+    private void drawRun(Canvas canvas, int from, int to, float left, float y, int color) {
+        if (to <= from) return;
+        textPaint.setColor(color);
+        canvas.drawText(drawBuffer, from, to - from, left + from * charWidth, y, textPaint);
+    }
+
+    // Copies text into drawBuffer with tabs expanded, up to maxColumns; returns the column count
+    private int expandTabs(CharSequence text, int maxColumns) {
+        int column = 0;
+        for (int i = 0; i < text.length() && column <= maxColumns; i++) {
+            char c = text.charAt(i);
+            int width = c == '\t' ? TAB_WIDTH - column % TAB_WIDTH : 1;
+            if (column + width > drawBuffer.length) {
+                char[] grown = new char[Math.max(drawBuffer.length * 2, column + width)];
+                System.arraycopy(drawBuffer, 0, grown, 0, column);
+                drawBuffer = grown;
+            }
+            for (int k = 0; k < width; k++) {
+                drawBuffer[column++] = c == '\t' ? ' ' : c;
+            }
+        }
+        return column;
+    }
+
+    private int columnOf(CharSequence text, int index) {
+        int column = 0;
+        for (int i = 0; i < index && i < text.length(); i++) {
+            column = text.charAt(i) == '\t' ? (column / TAB_WIDTH + 1) * TAB_WIDTH : column + 1;
+        }
+        return column + Math.max(0, index - text.length());
+    }
+
+    private void scrollToCursor() {
+        if (lines == null || lineHeight == 0 || getHeight() == 0) return;
+        int line = lines.lineOfOffset(selectionEnd);
+        unfold(line);
+        int top = padding + cursorRow() * lineHeight;
+        int y = getScrollY();
+        if (top < y) {
+            y = top - padding;
+        } else if (top + lineHeight > y + getHeight()) {
+            y = top + lineHeight + padding - getHeight();
+        }
+        int start = segmentStart(line, segmentOf(line, selectionEnd));
+        lineText.setLength(0);
+        document.appendRange(lineText, start, selectionEnd);
+        int cursorX = (int) (columnOf(lineText, lineText.length()) * charWidth) + padding;
+        int textWidth = getWidth() - gutterWidth;
+        int x = getScrollX();
+        if (cursorX < x) {
+            x = Math.max(0, cursorX - textWidth / 4);
+        } else if (cursorX > x + textWidth - padding) {
+            x = cursorX - textWidth * 3 / 4;
+        }
+        widestColumns = Math.max(widestColumns, (int) (cursorX / charWidth) + 1);
+        scrollClamped(x, y);
+    }
+
+    private void scrollClamped(int x, int y) {
+        scrollTo(clamp(x, 0, maxScrollX()), clamp(y, 0, maxScrollY()));
+    }
+
+    private int maxScrollX() {
+        return Math.max(0, (int) (widestColumns * charWidth) + gutterWidth + 2 * padding - getWidth());
+    }
+
+    private int maxScrollY() {
+        if (lines == null) return 0;
+        return Math.max(0, rowCount() * lineHeight + 2 * padding - getHeight());
+    }
+
+    private int visibleLines() {
+        return Math.max(1, getHeight() / Math.max(1, lineHeight) - 1);
+    }
+
+    private void updateGutterWidth() {
+        int digits = lines != null ? String.valueOf(lines.lineCount()).length() : 1;
+        gutterWidth = gutterWidthFor(digits);
+    }
+
+    // Line numbers plus a column for the fold markers
+    private int gutterWidthFor(int digits) {
+        return (int) ((Math.max(2, digits) + 2) * charWidth) + padding;
+    }
+
+    // Rows on screen: lines minus the ones folded away, plus the extra rows of long lines
+    private int rowCount() {
+        return lines.lineCount() - hiddenBefore[foldFirst.length] + extraRowsBefore[longLines.length];
+    }
+
+    // Number of folds starting at or before line
+    private int foldsUpTo(int line) {
+        int lo = 0;
+        int hi = foldFirst.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (foldFirst[mid] <= line) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // True when the lines after this one are folded into it
+    private boolean isFolded(int line) {
+        int i = foldsUpTo(line + 1);
+        return i > 0 && foldFirst[i - 1] == line + 1;
+    }
+
+    // First row of a line; a hidden line is on the row of the line its fold hangs from
+    private int rowOf(int line) {
+        int i = foldsUpTo(line);
+        if (i > 0 && line <= foldLast[i - 1]) line = foldFirst[i - 1] - 1;
+        return slotOf(line) + extraRowsBefore[longLinesBefore(line)];
+    }
+
+    private int lineAt(int row) {
+        row = clamp(row, 0, rowCount() - 1);
+        // The last long line starting on or above the row
+        int lo = 0;
+        int hi = longLines.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (slotOf(longLines[mid]) + extraRowsBefore[mid] <= row) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) return slotAt(row);
+        int line = longLines[lo - 1];
+        if (!isHidden(line) && row < slotOf(line) + extraRowsBefore[lo - 1] + segmentCount(line)) return line;
+        return slotAt(row - extraRowsBefore[lo]);
+    }
+
+    // Position of a line counting each visible line once, as if no line were long
+    private int slotOf(int line) {
+        int i = foldsUpTo(line);
+        if (i > 0 && line <= foldLast[i - 1]) {
+            return foldFirst[i - 1] - 1 - hiddenBefore[i - 1];
+        }
+        return line - hiddenBefore[i];
+    }
+
+    private int slotAt(int slot) {
+        // Fold i starts hiding after slot foldFirst[i] - 1 - hiddenBefore[i]
+        int lo = 0;
+        int hi = foldFirst.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (foldFirst[mid] - hiddenBefore[mid] <= slot) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return slot + hiddenBefore[lo];
+    }
+
+    private boolean isHidden(int line) {
+        int i = foldsUpTo(line);
+        return i > 0 && line <= foldLast[i - 1];
+    }
+
+    // Number of long lines before line
+    private int longLinesBefore(int line) {
+        int lo = 0;
+        int hi = longLines.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (longLines[mid] < line) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean isLongLine(int line) {
+        int i = longLinesBefore(line);
+        return i < longLines.length && longLines[i] == line;
+    }
+
+    private int segmentCount(int line) {
+        return isLongLine(line) ? (lines.lineLength(line) + segmentChars - 1) / segmentChars : 1;
+    }
+
+    // Segment of a line that holds offset; the end of the line belongs to its last segment
+    private int segmentOf(int line, int offset) {
+        if (!isLongLine(line)) return 0;
+        return Math.min((offset - lines.lineStart(line)) / segmentChars, segmentCount(line) - 1);
+    }
+
+    private int segmentStart(int line, int segment) {
+        return lines.lineStart(line) + segment * segmentChars;
+    }
+
+    private int segmentEnd(int line, int segment) {
+        return Math.min(lines.lineEnd(line), segmentStart(line, segment) + segmentChars);
+    }
+
+    // Last offset the cursor can take on a row: a segment's end is the next row's start
+    private int rowEnd(int line, int segment) {
+        int end = segmentEnd(line, segment);
+        return end == lines.lineEnd(line) ? end : end - 1;
+    }
+
+    // Segments are as wide as the text area, so a long line reads top to bottom
+    private void updateSegmentChars() {
+        if (charWidth == 0) return;
+        int chars = Math.max(MIN_SEGMENT_CHARS, (int) ((getWidth() - gutterWidth - 2 * padding) / charWidth));
+        if (chars != segmentChars) {
+            segmentChars = chars;
+            updateExtraRows();
+        }
+    }
+
+    // Lines in [from, to] longer than LONG_LINE_CHARS
+    private static int[] findLongLines(LineIndex lines, int from, int to) {
+        int[] found = new int[0];
+        int count = 0;
+        for (int line = from; line <= to; line++) {
+            if (lines.lineLength(line) <= LONG_LINE_CHARS) continue;
+            if (count == found.length) found = java.util.Arrays.copyOf(found, Math.max(4, count * 2));
+            found[count++] = line;
+        }
+        return java.util.Arrays.copyOf(found, count);
+    }
+
+    // True when a document has lines too long to lay out in one piece
+    public static boolean hasLongLines(LineIndex lines) {
+        for (int line = 0; line < lines.lineCount(); line++) {
+            if (lines.lineLength(line) > LONG_LINE_CHARS) return true;
+        }
+        return false;
+    }
+
+    // Lines [line, line + removedLines] became [line, line + insertedLines]: long lines below
+    // move, the edited lines are measured again
+    private void longLinesChanged(int line, int removedLines, int insertedLines) {
+        int from = longLinesBefore(line);
+        int to = longLinesBefore(line + removedLines + 1);
+        int[] edited = findLongLines(lines, line, line + insertedLines);
+        if (from == to && edited.length == 0 && insertedLines == removedLines) return;
+        int[] updated = new int[longLines.length - (to - from) + edited.length];
+        System.arraycopy(longLines, 0, updated, 0, from);
+        System.arraycopy(edited, 0, updated, from, edited.length);
+        for (int i = to; i < longLines.length; i++) {
+            updated[from + edited.length + i - to] = longLines[i] + insertedLines - removedLines;
+        }
+        longLines = updated;
+        updateExtraRows();
+    }
+
+    private void updateExtraRows() {
+        extraRowsBefore = new int[longLines.length + 1];
+        for (int i = 0; i < longLines.length; i++) {
+            int extra = isHidden(longLines[i]) ? 0 : segmentCount(longLines[i]) - 1;
+            extraRowsBefore[i + 1] = extraRowsBefore[i] + extra;
+        }
+    }
+
+    // Opens the fold hiding a line, if any
+    private void unfold(int line) {
+        int i = foldsUpTo(line);
+        if (i > 0 && line <= foldLast[i - 1]) removeFolds(i - 1, i);
+    }
+
+    // Lines [line, line + removedLines] became [line, line + insertedLines]: folds below move,
+    // folds the edit touched are dropped
+    private void foldsChanged(int line, int removedLines, int insertedLines) {
+        int delta = insertedLines - removedLines;
+        int kept = 0;
+        int[] first = new int[foldFirst.length];
+        int[] last = new int[foldLast.length];
+        for (int i = 0; i < foldFirst.length; i++) {
+            if (foldLast[i] < line) {
+                first[kept] = foldFirst[i];
+                last[kept++] = foldLast[i];
+            } else if (foldFirst[i] > line + removedLines) {
+                first[kept] = foldFirst[i] + delta;
+                last[kept++] = foldLast[i] + delta;
+            }
+        }
+        setFolds(java.util.Arrays.copyOf(first, kept), java.util.Arrays.copyOf(last, kept));
+    }
+
+    private void removeFolds(int from, int to) {
+        int[] first = new int[foldFirst.length - (to - from)];
+        int[] last = new int[first.length];
+        System.arraycopy(foldFirst, 0, first, 0, from);
+        System.arraycopy(foldLast, 0, last, 0, from);
+        System.arraycopy(foldFirst, to, first, from, foldFirst.length - to);
+        System.arraycopy(foldLast, to, last, from, foldLast.length - to);
+        setFolds(first, last);
+    }
+
+    private void setFolds(int[] first, int[] last) {
+        foldFirst = first;
+        foldLast = last;
+        hiddenBefore = new int[first.length + 1];
+        for (int i = 0; i < first.length; i++) {
+            hiddenBefore[i + 1] = hiddenBefore[i] + last[i] - first[i] + 1;
+        }
+        updateExtraRows();
+    }
+
+    private void selectionChanged() {
+        cursorVisible = true;
+        removeCallbacks(blink);
+        if (isFocused()) postDelayed(blink, BLINK_INTERVAL);
+        InputMethodManager imm = (InputMethodManager) getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
+        if (imm != null) {
+            imm.updateSelection(this, getSelectionStart(), getSelectionEnd(), composingStart, composingEnd);
+        }
+        invalidate();
+    }
+
+    private void showKeyboard() {
+        InputMethodManager imm = (InputMethodManager) getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
+        if (imm != null) imm.showSoftInput(this, InputMethodManager.SHOW_IMPLICIT);
+    }
+
+    private void restartInput() {
+        InputMethodManager imm = (InputMethodManager) getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
+        if (imm != null) imm.restartInput(this);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Applies IME edits straight to the document; the composing region is tracked here
+    // instead of in an Editable so the IME never needs a copy of the whole file.
+    private class EditorInputConnection extends BaseInputConnection {
+        EditorInputConnection() {
+            super(CodeEditorView.this, false);
+        }
+
+        @Override
+        public boolean commitText(CharSequence text, int newCursorPosition) {
+            if (!editable || document == null) return false;
+            input();
+            replaceComposingOrSelection(text);
+            composingStart = composingEnd = -1;
+            selectionChanged();
+            return true;
+        }
+
+        @Override
+        public boolean setComposingText(CharSequence text, int newCursorPosition) {
+            if (!editable || document == null) return false;
+            input();
+            int start = replaceComposingOrSelection(text);
+            composingStart = start;
+            composingEnd = start + text.length();
+            selectionChanged();
+            return true;
+        }
+
+        @Override
+        public boolean finishComposingText() {
+            composingStart = composingEnd = -1;
+            selectionChanged();
+            return true;
+        }
+
+        @Override
+        public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+            if (!editable || document == null) return false;
+            input();
+            int selStart = getSelectionStart();
+            int selEnd = getSelectionEnd();
+            int start = Math.max(0, selStart - beforeLength);
+            int end = Math.min(document.length(), selEnd + afterLength);
+            if (start == selStart && end == selEnd) return true;
+            // One replacement for both sides, so it is one edit and one undo step; the
+            // selection between them is put back and stays selected
+            CharSequence selected = selEnd > selStart ? document.getText(selStart, selEnd) : "";
+            replace(start, end, selected);
+            if (selected.length() > 0) {
+                CodeEditorView.this.setSelection(start, start + selected.length());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean setSelection(int start, int end) {
+            CodeEditorView.this.setSelection(start, end);
+            return true;
+        }
+
+        @Override
+        public CharSequence getTextBeforeCursor(int n, int flags) {
+            if (document == null) return "";
+            int end = getSelectionStart();
+            return document.getText(Math.max(0, end - n), end);
+        }
+
+        @Override
+        public CharSequence getTextAfterCursor(int n, int flags) {
+            if (document == null) return "";
+            int start = getSelectionEnd();
+            return document.getText(start, Math.min(document.length(), start + n));
+        }
+
+        private void input() {
+            if (onInput != null) onInput.run();
+        }
+
+        private int replaceComposingOrSelection(CharSequence text) {
+            int start = composingStart >= 0 ? composingStart : getSelectionStart();
+            int end = composingStart >= 0 ? composingEnd : getSelectionEnd();
+            replace(start, end, text);
+            return start;
+        }
+    }
+}
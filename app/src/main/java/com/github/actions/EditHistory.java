@@ -0,0 +1,370 @@
+package com.github.actions;
+
+import java.util.ArrayList;
+
+// Undo/redo log of (offset, removed text, inserted text) records. Keystrokes that follow
+// each other within the coalesce window are merged into one record. Undo and redo only
+// touch the text of the edit being reverted, never the whole document. Records live in a
+// Store: in memory under a byte budget, or in an UndoJournal on disk. An EditTransaction is
+// one record made of parts, undone and redone as a whole.
+public class EditHistory {
+    public static final class Edit {
+        public final int offset;
+        public final String removed;
+        public final String inserted;
+        final long time;
+        final Edit[] parts; // Edits applied in this order, or null for a single edit
+
+        Edit(int offset, String removed, String inserted, long time) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.time = time;
+            this.parts = null;
+        }
+
+        // A record of several edits; it reports where the first one was made
+        Edit(Edit[] parts, long time) {
+            this.offset = parts[0].offset;
+            this.removed = "";
+            this.inserted = "";
+            this.time = time;
+            this.parts = parts;
+        }
+
+        boolean isEmpty() {
+            return parts == null && removed.isEmpty() && inserted.isEmpty();
+        }
+
+        int bytes() {
+            if (parts == null) return 2 * (removed.length() + inserted.length()) + 32;
+            int bytes = 32;
+            for (Edit part : parts) bytes += part.bytes();
+            return bytes;
+        }
+
+        // Undoes the edit: inserted text goes back to removed text, last part first
+        public void revert(Replayer target) {
+            if (parts == null) {
+                target.replace(offset, inserted.length(), removed);
+                return;
+            }
+            for (int i = parts.length - 1; i >= 0; i--) {
+                parts[i].revert(target);
+            }
+        }
+
+        public void reapply(Replayer target) {
+            if (parts == null) {
+                target.replace(offset, removed.length(), inserted);
+                return;
+            }
+            for (Edit part : parts) {
+                part.reapply(target);
+            }
+        }
+    }
+
+    // Records before the cursor can be undone, records after it redone
+    public interface Store {
+        Edit peekUndo();
+
+        Edit peekRedo();
+
+        void moveBack();
+
+        void moveForward();
+
+        // Drops every record after the cursor
+        void dropRedo();
+
+        void push(Edit edit);
+
+        // The record just before the cursor took in edit and is now merged, which may be empty
+        // when typing and backspacing cancelled out; only called with no redo records left
+        void extendUndo(Edit merged, Edit edit);
+
+        // Remembers the cursor as a snapshot of the document is taken for saving; returns a
+        // ticket for markSaved. Histories sharing the store share the tickets.
+        int beginSave();
+
+        // Records that the document file now holds the state remembered by beginSave, unless
+        // a later snapshot has been taken since
+        void markSaved(java.io.File document, int ticket);
+
+        // Flushes records to disk, then reports to listener on any thread
+        void sync(SyncListener listener);
+
+        // Direction the cursor still has to move to reach where the last session left it
+        int pendingRecovery();
+
+        // Runs task, on any thread, once the records the store starts with have been read
+        void whenReady(Runnable task);
+
+        void clear();
+
+        void close();
+    }
+
+    public interface SyncListener {
+        // pendingBytes is the size of the edits since the last save, or -1 if records do not
+        // survive the process; nanos is how long the flush took
+        void onSynced(long pendingBytes, long nanos);
+    }
+
+    public interface Replayer {
+        void replace(int offset, int length, String text);
+    }
+
+    private final long coalesceMillis;
+    private final Store store;
+    private boolean mergeBlocked;
+
+    public EditHistory(long coalesceMillis, long budgetBytes) {
+        this(coalesceMillis, new MemoryStore(budgetBytes));
+    }
+
+    public EditHistory(long coalesceMillis, Store store) {
+        this.coalesceMillis = coalesceMillis;
+        this.store = store;
+    }
+
+    public void record(int offset, CharSequence removed, CharSequence inserted) {
+        record(offset, removed, inserted, System.currentTimeMillis());
+    }
+
+    public void record(int offset, CharSequence removed, CharSequence inserted, long time) {
+        if (removed.length() == 0 && inserted.length() == 0) return;
+        store.dropRedo();
+
+        Edit last = mergeBlocked ? null : store.peekUndo();
+        Edit merged = last != null && time - last.time <= coalesceMillis ? merge(last, offset, removed, inserted, time) : null;
+        Edit edit = new Edit(offset, removed.toString(), inserted.toString(), time);
+        if (merged != null) {
+            store.extendUndo(merged, edit);
+        } else {
+            store.push(edit);
+        }
+        mergeBlocked = false;
+    }
+
+    // Records edits applied one after the other as a single step; see EditTransaction
+    public void recordBatch(Edit[] parts) {
+        if (parts.length == 0) return;
+        store.dropRedo();
+        store.push(parts.length == 1 ? parts[0] : new Edit(parts, System.currentTimeMillis()));
+        // Typing afterwards starts a record of its own
+        mergeBlocked = true;
+    }
+
+    // The next record starts an undo step of its own, even within the coalesce window
+    public void endBurst() {
+        mergeBlocked = true;
+    }
+
+    public boolean canUndo() {
+        return store.peekUndo() != null;
+    }
+
+    public boolean canRedo() {
+        return store.peekRedo() != null;
+    }
+
+    // Returns the edit to revert (replace inserted at offset with removed), or null
+    public Edit undo() {
+        Edit edit = store.peekUndo();
+        if (edit == null) return null;
+        store.moveBack();
+        mergeBlocked = true;
+        return edit;
+    }
+
+    // Returns the edit to reapply (replace removed at offset with inserted), or null
+    public Edit redo() {
+        Edit edit = store.peekRedo();
+        if (edit == null) return null;
+        store.moveForward();
+        // Redone edits must not merge with whatever is typed next
+        mergeBlocked = true;
+        return edit;
+    }
+
+    // Call when the document is snapshotted for saving; pass the ticket to markSaved once the
+    // write has finished. Only the latest snapshot is recorded, older saves are superseded.
+    public int beginSave() {
+        // The save point must fall between records, so the next keystroke starts a new one
+        mergeBlocked = true;
+        return store.beginSave();
+    }
+
+    public void markSaved(java.io.File document, int ticket) {
+        store.markSaved(document, ticket);
+    }
+
+    public void sync(SyncListener listener) {
+        store.sync(listener);
+    }
+
+    // Runs task once the history has been read; on a background thread for a journal
+    public void whenReady(Runnable task) {
+        store.whenReady(task);
+    }
+
+    public boolean needsRecovery() {
+        return store.pendingRecovery() != 0;
+    }
+
+    // Brings a freshly loaded document up to date with edits from the last session that were
+    // journaled but never saved; returns how many records were replayed
+    public int recover(Replayer target) {
+        int count = 0;
+        for (int direction = store.pendingRecovery(); direction != 0; direction = store.pendingRecovery()) {
+            if (direction > 0) {
+                Edit edit = store.peekRedo();
+                if (edit == null) break;
+                edit.reapply(target);
+                store.moveForward();
+            } else {
+                Edit edit = store.peekUndo();
+                if (edit == null) break;
+                edit.revert(target);
+                store.moveBack();
+            }
+            count++;
+        }
+        mergeBlocked = true;
+        return count;
+    }
+
+    public void clear() {
+        store.clear();
+    }
+
+    public void close() {
+        store.close();
+    }
+
+    // One record with the effect of last followed by edit: joined like typing where possible,
+    // else as parts
+    static Edit fold(Edit last, Edit edit) {
+        if (edit.parts == null) {
+            Edit merged = merge(last, edit.offset, edit.removed, edit.inserted, edit.time);
+            if (merged != null) return merged;
+        }
+        ArrayList<Edit> parts = new ArrayList<>();
+        for (Edit e : new Edit[] { last, edit }) {
+            if (e.parts != null) {
+                parts.addAll(java.util.Arrays.asList(e.parts));
+            } else {
+                parts.add(e);
+            }
+        }
+        return new Edit(parts.toArray(new Edit[0]), edit.time);
+    }
+
+    // Joins a new edit onto the previous one when it continues the same typing burst
+    private static Edit merge(Edit last, int offset, CharSequence removed, CharSequence inserted, long time) {
+        if (last.parts != null) return null;
+        if (removed.length() == 0 && offset == last.offset + last.inserted.length()) {
+            // Typing: text appended right after the previous insertion
+            return new Edit(last.offset, last.removed, last.inserted + inserted, time);
+        }
+        if (inserted.length() == 0 && last.inserted.isEmpty()) {
+            if (offset + removed.length() == last.offset) {
+                // Backspace: deletion just before the previous one
+                return new Edit(offset, removed + last.removed, "", time);
+            }
+            if (offset == last.offset) {
+                // Forward delete at the same position
+                return new Edit(offset, last.removed + removed, "", time);
+            }
+        }
+        if (inserted.length() == 0 && offset >= last.offset && offset + removed.length() == last.offset + last.inserted.length()
+                && last.inserted.endsWith(removed.toString())) {
+            // Backspace over text typed in this burst
+            return new Edit(last.offset, last.removed, last.inserted.substring(0, last.inserted.length() - removed.length()), time);
+        }
+        return null;
+    }
+
+    // Keeps records on the heap, dropping the oldest once they pass the byte budget
+    static final class MemoryStore implements Store {
+        private final ArrayList<Edit> edits = new ArrayList<>();
+        private final long budgetBytes;
+        private int cursor;
+        private long bytes;
+
+        MemoryStore(long budgetBytes) {
+            this.budgetBytes = budgetBytes;
+        }
+
+        public Edit peekUndo() {
+            return cursor > 0 ? edits.get(cursor - 1) : null;
+        }
+
+        public Edit peekRedo() {
+            return cursor < edits.size() ? edits.get(cursor) : null;
+        }
+
+        public void moveBack() {
+            cursor--;
+        }
+
+        public void moveForward() {
+            cursor++;
+        }
+
+        public void dropRedo() {
+            while (edits.size() > cursor) {
+                bytes -= edits.remove(edits.size() - 1).bytes();
+            }
+        }
+
+        public void extendUndo(Edit merged, Edit edit) {
+            bytes -= edits.remove(--cursor).bytes();
+            // Text typed and then backspaced away within one burst leaves nothing to undo
+            if (!merged.isEmpty()) push(merged);
+        }
+
+        public void push(Edit edit) {
+            edits.add(cursor++, edit);
+            bytes += edit.bytes();
+            int drop = 0;
+            while (bytes > budgetBytes && drop < edits.size()) {
+                bytes -= edits.get(drop++).bytes();
+            }
+            if (drop > 0) {
+                edits.subList(0, drop).clear();
+                cursor = Math.max(0, cursor - drop);
+            }
+        }
+
+        public int beginSave() {
+            return 0;
+        }
+
+        public void markSaved(java.io.File document, int ticket) {
+        }
+
+        public void sync(SyncListener listener) {
+            listener.onSynced(-1, 0);
+        }
+
+        public int pendingRecovery() {
+            return 0;
+        }
+
+        public void whenReady(Runnable task) {
+            task.run();
+        }
+
+        public void clear() {
+            edits.clear();
+            cursor = 0;
+            bytes = 0;
+        }
+
+        public void close() {
+        }
+    }
+}
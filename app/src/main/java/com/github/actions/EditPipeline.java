@@ -0,0 +1,59 @@
+package com.github.actions;
+
+import java.util.ArrayList;
+
+// Turns an EditText's TextWatcher callbacks into one event per edit: where it happened, how
+// much text was replaced by how much, and a copy of the replaced text. Only the edited range
+// is ever copied, so a keystroke costs the same in a one-line file as in a huge one.
+// Listeners run in the order they were added. A listener that changes the text itself, like
+// auto-indent, must be added last, so every listener has seen an edit before the next starts.
+public class EditPipeline implements android.text.TextWatcher {
+    public interface Listener {
+        // The inserted text is text[start, start + count). removed is the replaced text, or
+        // null while copying is off.
+        void onEdit(android.text.Editable text, int start, int before, int count, String removed);
+    }
+
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+    private boolean copyRemoved = true;
+    private String removed;
+    private int start;
+    private int before;
+    private int count;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Turned off while the whole text is replaced programmatically, which nothing records
+    public void setCopyRemoved(boolean copy) {
+        copyRemoved = copy;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        removed = copyRemoved ? s.subSequence(start, start + count).toString() : null;
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        this.start = start;
+        this.before = before;
+        this.count = count;
+    }
+
+    @Override
+    public void afterTextChanged(android.text.Editable s) {
+        // Read the fields first: a listener that edits the text re-enters the callbacks above
+        int start = this.start;
+        int before = this.before;
+        int count = this.count;
+        String removed = this.removed;
+        this.removed = null;
+        // An edit that changed nothing, such as one an InputFilter refused, is not passed on
+        if (removed != null && before == count && android.text.TextUtils.regionMatches(s, start, removed, 0, count)) return;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onEdit(s, start, before, count, removed);
+        }
+    }
+}
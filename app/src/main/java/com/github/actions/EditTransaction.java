@@ -0,0 +1,48 @@
+package com.github.actions;
+
+import java.util.ArrayList;
+
+// A batch of edits applied as one: the hits of a Replace All, an indent over several lines.
+// Edits are added in order of position in the text as it is before the batch, and must not
+// overlap. They are applied last to first, so every offset still points where it did, and
+// recorded as a single history step that holds only the edited ranges.
+public class EditTransaction {
+    private final CharSequence text;
+    private final ArrayList<EditHistory.Edit> edits = new ArrayList<>();
+    private int lastEnd;
+
+    // The removed ranges are copied from text as edits are added
+    public EditTransaction(CharSequence text) {
+        this.text = text;
+    }
+
+    public void replace(int start, int end, String replacement) {
+        if (start < lastEnd || end < start) {
+            throw new IllegalArgumentException("Edits must be in order and must not overlap");
+        }
+        edits.add(new EditHistory.Edit(start, text.subSequence(start, end).toString(), replacement, 0));
+        lastEnd = end;
+    }
+
+    public void insert(int offset, String insertion) {
+        replace(offset, offset, insertion);
+    }
+
+    public int size() {
+        return edits.size();
+    }
+
+    // Applies the edits through target and returns them in the order applied, for
+    // EditHistory.recordBatch. shift is added to each recorded offset, for a target whose
+    // text starts at that offset in the document the history is kept for.
+    public EditHistory.Edit[] apply(EditHistory.Replayer target, int shift) {
+        EditHistory.Edit[] applied = new EditHistory.Edit[edits.size()];
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            EditHistory.Edit edit = edits.get(i);
+            target.replace(edit.offset, edit.removed.length(), edit.inserted);
+            applied[edits.size() - 1 - i] = shift == 0 ? edit
+                : new EditHistory.Edit(edit.offset + shift, edit.removed, edit.inserted, 0);
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.actions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Writes document snapshots on a background thread. Each save goes to a temp file next to
+// the target, is fsynced and then renamed over it, so a crash or another reader only ever
+// sees the old file or the new one. Saves run one at a time in the order they were queued
+// and report back on the UI thread with how long the write took.
+public class FileSaver {
+    public interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    public interface Callback {
+        void onSaved(File file, long millis);
+
+        void onFailed(File file, Exception e);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final android.os.Handler handler = new android.os.Handler(android.os.Looper.getMainLooper());
+
+    public void save(File file, Content content, Callback callback) {
+        executor.execute(() -> {
+            long start = android.os.SystemClock.uptimeMillis();
+            try {
+                write(file, content);
+                long millis = android.os.SystemClock.uptimeMillis() - start;
+                handler.post(() -> callback.onSaved(file, millis));
+            } catch (Exception e) {
+                handler.post(() -> callback.onFailed(file, e));
+            }
+        });
+    }
+
+    // Runs the task on the UI thread once every save queued so far has finished
+    public void whenIdle(Runnable task) {
+        executor.execute(() -> handler.post(task));
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static void write(File file, Content content) throws IOException {
+        File temp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        boolean replaced = false;
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                Writer writer = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+                    out, java.nio.charset.StandardCharsets.UTF_8));
+                content.writeTo(writer);
+                writer.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file.getName());
+            }
+            replaced = true;
+        } finally {
+            // A failed write or rename leaves the target as it was; the half-written temp goes
+            if (!replaced) temp.delete();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.actions;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+
+// Language definitions bundled as assets/grammars/*.json. Each file lists the extensions it
+// covers, its keywords, comment and string delimiters, the extra characters allowed in
+// identifiers and numbers, and how its blocks fold. Adding a language is just adding a file.
+// A grammar is compiled into a SyntaxLexer the first time a file needs it and shared by every
+// extension it covers.
+public class GrammarRegistry {
+    private static final String DIR = "grammars";
+    private static GrammarRegistry instance;
+
+    private final HashMap<String, JSONObject> grammarByExtension = new HashMap<>();
+    private final HashMap<JSONObject, SyntaxLexer> compiled = new HashMap<>();
+
+    public static synchronized GrammarRegistry get(Context context) {
+        if (instance == null) {
+            instance = new GrammarRegistry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private GrammarRegistry(Context context) {
+        try {
+            String[] files = context.getAssets().list(DIR);
+            for (String file : files != null ? files : new String[0]) {
+                if (!file.endsWith(".json")) continue;
+                try {
+                    JSONObject grammar = new JSONObject(readAsset(context, DIR + "/" + file));
+                    JSONArray extensions = grammar.getJSONArray("extensions");
+                    for (int i = 0; i < extensions.length(); i++) {
+                        grammarByExtension.put(extensions.getString(i).toLowerCase(), grammar);
+                    }
+                } catch (Exception e) {
+                    // Skip a broken grammar, keep the others
+                }
+            }
+        } catch (Exception e) {
+            // No grammars: nothing gets highlighted
+        }
+    }
+
+    // Lexer for the file's extension, or null if no grammar covers it
+    public synchronized SyntaxLexer lexerFor(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) return null;
+        JSONObject grammar = grammarByExtension.get(fileName.substring(dot + 1).toLowerCase());
+        if (grammar == null) return null;
+        SyntaxLexer lexer = compiled.get(grammar);
+        if (lexer == null) {
+            try {
+                lexer = compile(grammar);
+            } catch (Exception e) {
+                return null;
+            }
+            compiled.put(grammar, lexer);
+        }
+        return lexer;
+    }
+
+    private static SyntaxLexer compile(JSONObject grammar) throws Exception {
+        JSONArray block = grammar.optJSONArray("blockComment");
+        String folding = grammar.optString("folding", "brackets");
+        return new SyntaxLexer(
+            strings(grammar.optJSONArray("keywords")),
+            strings(grammar.optJSONArray("lineComments")),
+            block != null ? block.getString(0) : null,
+            block != null ? block.getString(1) : null,
+            grammar.optString("quotes", "\"'"),
+            grammar.optString("multilineQuotes", ""),
+            grammar.optString("identifierChars", "_$"),
+            grammar.optString("numberChars", "._"),
+            folding.equals("indent") ? SyntaxLexer.FOLD_INDENT
+                : folding.equals("tags") ? SyntaxLexer.FOLD_TAGS : SyntaxLexer.FOLD_BRACKETS);
+    }
+
+    private static String[] strings(JSONArray array) throws Exception {
+        if (array == null) return new String[0];
+        String[] result = new String[array.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = array.getString(i);
+        }
+        return result;
+    }
+
+    private static String readAsset(Context context, String path) throws Exception {
+        InputStream in = context.getAssets().open(path);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
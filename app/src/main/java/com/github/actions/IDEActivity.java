@@ -24,28 +24,53 @@ import java.util.concurrent.Executors;
 public class IDEActivity extends AppCompatActivity {
     private DrawerLayout drawerLayout;
     private LinearLayout fileList;
-    private EditText editor;
-    private TextView lineNumbers;
+    private CodeEditText editor;
+    private LineNumberGutter lineNumbers;
     private ScrollView editorScroll;
-    private ScrollView lineNumberScroll;
+    private CodeEditorView codeView; // Continuous view for large files, shown instead of editorScroll
+    private boolean continuousMode = false;
     private String projectName, projectPath;
     private File currentFile;
     private SharedPreferences prefs;
     private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private ExecutorService fileLoadExecutor = Executors.newSingleThreadExecutor();
+    private ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(); // Neighbouring chunk windows, kept off executor's pushes and exports
+    private volatile int openGeneration = 0; // Bumped on every openFile so stale background loads are dropped
     private boolean selectionMode = false;
     private java.util.Set<File> selectedFiles = new java.util.HashSet<>();
     private android.os.Handler autoSaveHandler = new android.os.Handler();
     private Runnable autoSaveRunnable;
-    private android.os.Handler syntaxHandler = new android.os.Handler();
-    private Runnable syntaxRunnable;
-    private String lastHighlightedText = "";
-    private java.util.Stack<String> undoStack = new java.util.Stack<>();
-    private java.util.Stack<String> redoStack = new java.util.Stack<>();
-    private boolean isUndoRedo = false;
-    private long lastEditTime = 0;
+    private final AdaptiveDebounce autoSaveDebounce = new AdaptiveDebounce(500, 10000, 50); // Follows checkpoint and save times
+    private BackgroundHighlighter highlighter; // Null when the open file is not highlighted
+    private int[] tokenColors = new int[SyntaxLexer.TOKEN_TYPES];
+    private java.util.ArrayList<int[]> appliedTokens = new java.util.ArrayList<>(); // Tokens each editor line has spans for
+    private final SpanApplier spanApplier = new SpanApplier(this::applyNextHighlight);
+    private int[] highlightOrder = new int[0]; // Editor lines to update, nearest to the viewport first
+    private int highlightCount = 0;
+    private int highlightNext = 0;
+    private int[] highlightTokens; // Tokens of the line part way through, see applyNextHighlight
+    private int highlightToken = 0; // Next of those tokens to apply
+    private static final int HIGHLIGHT_STEP_TOKENS = 256; // A minified line is applied over several steps
     private static final long UNDO_DELAY = 1000; // 1 second
+    private static final long UNDO_BUDGET_BYTES = 8 * 1024 * 1024;
+    private static final int BULK_INSERT_CHARS = 64 * 1024; // Pastes this long go straight to the document
+    private EditHistory history = new EditHistory(UNDO_DELAY, UNDO_BUDGET_BYTES);
+    private static final long COMPACT_BYTES = 256 * 1024; // Journaled edits before autosave rewrites the file
+    private static final long COMPACT_INTERVAL = 30000; // Longest time edits stay only in the journal
+    private long lastCompactTime = 0;
+    private final FileSaver fileSaver = new FileSaver();
+    private int editVersion = 0; // Bumped on every change to the open document
+    private int savedVersion = 0; // editVersion of the last snapshot handed to fileSaver
+    private boolean isUndoRedo = false;
+    private boolean applyingTransaction = false; // Set while an EditTransaction runs; it records itself
+    private boolean historySuppressed = false; // Set while the editor text is replaced programmatically
+    private final EditPipeline editPipeline = new EditPipeline();
+    private boolean autoCompleting = false; // Set while autoComplete inserts, so its own edits are left alone
+    private LatencyTracker latencyTracker;
+    private TextView latencyHud; // Overlay with the typing latency percentiles, shown from the settings
+    private boolean latencyHudPending = false;
     private boolean wordWrapEnabled = true;
-    private android.text.style.BackgroundColorSpan bracketHighlight;
+    private final android.text.style.BackgroundColorSpan[] bracketSpans = new android.text.style.BackgroundColorSpan[2];
     private java.util.List<File> openTabs = new java.util.ArrayList<>();
     private LinearLayout tabBar;
 
@@ -113,32 +138,19 @@ public class IDEActivity extends AppCompatActivity {
             editorContainer.setBackgroundColor(0xFF1E1E1E);
         }
         
-        // Line numbers - start with minimal width
-        lineNumberScroll = new ScrollView(this);
-        lineNumberScroll.setVerticalScrollBarEnabled(false);
-        LinearLayout.LayoutParams lineNumParams = new LinearLayout.LayoutParams(
-            LinearLayout.LayoutParams.WRAP_CONTENT,
-            LinearLayout.LayoutParams.MATCH_PARENT);
-        lineNumberScroll.setLayoutParams(lineNumParams);
-        
         // Load saved font size
         SharedPreferences settingsPrefs = getSharedPreferences("GitCodeSettings", MODE_PRIVATE);
         int fontSize = settingsPrefs.getInt("fontSize", 14);
         
-        lineNumbers = new TextView(this);
-        lineNumbers.setTypeface(android.graphics.Typeface.MONOSPACE);
-        lineNumbers.setTextSize(fontSize);
-        
-        lineNumbers.setGravity(Gravity.TOP | Gravity.END);
-        lineNumbers.setPadding(8, 20, 2, 20);
+        // Line numbers - drawn from the editor's layout, sized to the largest number
+        lineNumbers = new LineNumberGutter(this);
+        lineNumbers.setPadding(8, 0, 2 + (int)(4 * getResources().getDisplayMetrics().density), 0);
         lineNumbers.setBackgroundColor(isDark ? 0xFF2D2D2D : 0xFFF5F5F5);
         lineNumbers.setTextColor(isDark ? 0xFF666666 : 0xFF999999);
-        lineNumbers.setLineSpacing(0, 1.0f);
         lineNumbers.setLayoutParams(new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.WRAP_CONTENT,
-            LinearLayout.LayoutParams.WRAP_CONTENT));
-        lineNumberScroll.addView(lineNumbers);
-        editorContainer.addView(lineNumberScroll);
+            LinearLayout.LayoutParams.MATCH_PARENT));
+        editorContainer.addView(lineNumbers);
         
         editorScroll = new ScrollView(this);
         editorScroll.setVerticalScrollBarEnabled(false);
@@ -149,11 +161,11 @@ public class IDEActivity extends AppCompatActivity {
         editorScroll.setLayoutParams(editorScrollParams);
         editorScroll.setFillViewport(true);
         
-        editor = new EditText(this);
+        editor = new CodeEditText(this);
         editor.setLayoutParams(new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.MATCH_PARENT,
             LinearLayout.LayoutParams.WRAP_CONTENT));
-        editor.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS | InputType.TYPE_TEXT_FLAG_AUTO_CORRECT);
+        editor.setInputType(EDITOR_INPUT_TYPE);
         editor.setTypeface(android.graphics.Typeface.MONOSPACE);
         editor.setTextSize(fontSize);
         
@@ -167,35 +179,24 @@ public class IDEActivity extends AppCompatActivity {
         editor.setVerticalScrollBarEnabled(false);
         
         // Tab key support and keyboard shortcuts
+        editor.setOnInputListener(this::trackInput);
+        editor.setOnPasteListener(text -> bulkReplace(editor.getSelectionStart(), editor.getSelectionEnd(), text));
         editor.setOnKeyListener((v, keyCode, event) -> {
             if (event.getAction() == android.view.KeyEvent.ACTION_DOWN) {
-                // Tab key
-                if (keyCode == android.view.KeyEvent.KEYCODE_TAB) {
+                trackInput();
+                // Tab key; over a selection of several lines, or with Shift, it indents or outdents them
+                if (keyCode == android.view.KeyEvent.KEYCODE_TAB && !isReadOnly()) {
                     int start = editor.getSelectionStart();
                     int end = editor.getSelectionEnd();
-                    editor.getText().replace(Math.min(start, end), Math.max(start, end), "    ");
-                    return true;
-                }
-                // Ctrl+S to save
-                if (keyCode == android.view.KeyEvent.KEYCODE_S && event.isCtrlPressed()) {
-                    saveCurrentFile();
-                    return true;
-                }
-                // Ctrl+Z to undo
-                if (keyCode == android.view.KeyEvent.KEYCODE_Z && event.isCtrlPressed()) {
-                    undo();
-                    return true;
-                }
-                // Ctrl+Y to redo
-                if (keyCode == android.view.KeyEvent.KEYCODE_Y && event.isCtrlPressed()) {
-                    redo();
-                    return true;
-                }
-                // Ctrl+F to find
-                if (keyCode == android.view.KeyEvent.KEYCODE_F && event.isCtrlPressed()) {
-                    showFindDialog();
+                    LineIndex lines = editorLines();
+                    if (lines != null && (event.isShiftPressed() || lines.lineOfOffset(start) != lines.lineOfOffset(end))) {
+                        indentLines(event.isShiftPressed());
+                    } else {
+                        editor.getText().replace(Math.min(start, end), Math.max(start, end), "    ");
+                    }
                     return true;
                 }
+                return handleShortcutKey(keyCode, event);
             }
             return false;
         });
@@ -203,226 +204,106 @@ public class IDEActivity extends AppCompatActivity {
         // Auto-save setup
         autoSaveRunnable = () -> {
             if (currentFile != null) {
-                autoSaveFile();
-            }
-        };
-        
-        // Syntax highlighting setup
-        syntaxRunnable = () -> {
-            if (currentFile != null) {
-                String currentText = editor.getText().toString();
-                if (!currentText.equals(lastHighlightedText)) {
-                    if (isLargeFile) {
-                        applySyntaxHighlightingForLargeFile();
-                    } else {
-                        applySyntaxHighlighting(currentFile.getName(), currentText);
-                    }
-                    lastHighlightedText = currentText;
-                }
+                checkpointFile();
             }
         };
         
-        // Auto-indent and auto-brackets
-        editor.addTextChangedListener(new android.text.TextWatcher() {
-            private String before = "";
-            private int cursorPos = 0;
-            private boolean isProcessing = false;
-            private long lastUpdateTime = 0;
-            
-            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-                before = s.toString();
-                cursorPos = start;
-            }
-            
-            public void onTextChanged(CharSequence s, int start, int before, int count) {}
-            
-            public void afterTextChanged(android.text.Editable s) {
-                if (isProcessing) return;
-                isProcessing = true;
-                
-                String text = s.toString();
-                long currentTime = System.currentTimeMillis();
-                
-                // For large files, track undo/redo on full content
-                if (isLargeFile) {
-                    // Track for undo/redo with time-based grouping
-                    if (!isUndoRedo && currentTime - lastEditTime > UNDO_DELAY) {
-                        updateFullContentFromChunk();
-                        if (!undoStack.isEmpty() && !undoStack.peek().equals(fullFileContent)) {
-                            undoStack.push(fullFileContent);
-                        } else if (undoStack.isEmpty()) {
-                            undoStack.push(fullFileContent);
-                        }
-                        if (undoStack.size() > 50) undoStack.remove(0);
-                        redoStack.clear();
-                        lastEditTime = currentTime;
-                    }
-                    
-                    // Trigger syntax highlighting after 2 seconds
-                    syntaxHandler.removeCallbacks(syntaxRunnable);
-                    syntaxHandler.postDelayed(syntaxRunnable, 2000);
-                    
-                    // Auto-save
-                    autoSaveHandler.removeCallbacks(autoSaveRunnable);
-                    autoSaveHandler.postDelayed(autoSaveRunnable, 2000);
-                    isProcessing = false;
-                    return;
-                }
-                
-                // Update line numbers only every 100ms to reduce lag
-                if (currentTime - lastUpdateTime > 100) {
-                    updateLineNumbers(lineNumbers, text);
-                    lastUpdateTime = currentTime;
-                }
-                
-                // Trigger syntax highlighting after 2 seconds of inactivity
-                syntaxHandler.removeCallbacks(syntaxRunnable);
-                syntaxHandler.postDelayed(syntaxRunnable, 2000);
-                
-                // Always trigger auto-save
-                autoSaveHandler.removeCallbacks(autoSaveRunnable);
-                autoSaveHandler.postDelayed(autoSaveRunnable, 2000);
-                
-                // Track for undo/redo with time-based grouping
-                if (!isUndoRedo && !text.equals(before)) {
-                    long undoTime = System.currentTimeMillis();
-                    // Only save to undo stack if enough time has passed or significant change
-                    if (undoTime - lastEditTime > UNDO_DELAY) {
-                        if (!undoStack.isEmpty() && !undoStack.peek().equals(before)) {
-                            undoStack.push(before);
-                        } else if (undoStack.isEmpty()) {
-                            undoStack.push(before);
-                        }
-                        if (undoStack.size() > 50) undoStack.remove(0);
-                        redoStack.clear();
-                    }
-                    lastEditTime = undoTime;
-                }
-                
-                int selection = editor.getSelectionStart();
-                
-                // Smart bracket handling - Enter between brackets
-                if (text.length() > before.length() && selection > 0 && selection < text.length()) {
-                    if (text.charAt(selection - 1) == '\n') {
-                        char prevChar = selection > 1 ? text.charAt(selection - 2) : 0;
-                        char nextChar = text.charAt(selection);
-                        
-                        if ((prevChar == '{' && nextChar == '}') ||
-                            (prevChar == '[' && nextChar == ']') ||
-                            (prevChar == '(' && nextChar == ')')) {
-                            
-                            // Get indent of previous line
-                            String[] lines = text.substring(0, selection - 1).split("\n");
-                            String lastLine = lines.length > 0 ? lines[lines.length - 1] : "";
-                            int indent = 0;
-                            for (char c : lastLine.toCharArray()) {
-                                if (c == ' ' || c == '\t') indent++;
-                                else break;
-                            }
-                            
-                            String indentStr = new String(new char[indent + 4]).replace('\0', ' ');
-                            String closeIndent = new String(new char[indent]).replace('\0', ' ');
-                            
-                            s.insert(selection, indentStr + "\n" + closeIndent);
-                            editor.setSelection(selection + indentStr.length());
-                            isProcessing = false;
-                            return;
-                        }
-                    }
-                }
-                
-                // Auto-indent on new line
-                if (text.length() > before.length() && selection > 0 && text.charAt(selection - 1) == '\n') {
-                    String[] lines = text.substring(0, selection - 1).split("\n");
-                    if (lines.length > 0) {
-                        String lastLine = lines[lines.length - 1];
-                        int indent = 0;
-                        for (char c : lastLine.toCharArray()) {
-                            if (c == ' ' || c == '\t') indent++;
-                            else break;
-                        }
-                        
-                        // Extra indent after opening brace
-                        if (lastLine.trim().endsWith("{") || lastLine.trim().endsWith(":")) {
-                            indent += 4;
-                        }
-                        
-                        if (indent > 0) {
-                            String indentStr = new String(new char[indent]).replace('\0', ' ');
-                            s.insert(selection, indentStr);
-                            editor.setSelection(selection + indent);
-                        }
-                    }
-                }
-                
-                // Auto-close brackets
-                else if (text.length() > before.length() && selection > 0) {
-                    char typed = text.charAt(selection - 1);
-                    char closing = 0;
-                    
-                    switch (typed) {
-                        case '(': closing = ')'; break;
-                        case '[': closing = ']'; break;
-                        case '{': closing = '}'; break;
-                        case '"': closing = '"'; break;
-                        case '\'': closing = '\''; break;
-                        case '`': closing = '`'; break;
-                        case '<': 
-                            // Auto-close < for HTML/XML
-                            if (currentFile != null && (currentFile.getName().endsWith(".html") || 
-                                currentFile.getName().endsWith(".xml") || 
-                                currentFile.getName().endsWith(".jsx") || 
-                                currentFile.getName().endsWith(".tsx"))) {
-                                closing = '>';
-                            }
-                            break;
-                    }
-                    
-                    if (closing != 0) {
-                        if (selection >= text.length() || !Character.isLetterOrDigit(text.charAt(selection))) {
-                            s.insert(selection, String.valueOf(closing));
-                            editor.setSelection(selection);
-                        }
-                    }
-                    
-                    // Auto-close tags for HTML/XML
-                    if (typed == '>' && currentFile != null && 
-                        (currentFile.getName().endsWith(".html") || 
-                         currentFile.getName().endsWith(".xml") ||
-                         currentFile.getName().endsWith(".jsx") ||
-                         currentFile.getName().endsWith(".tsx"))) {
-                        
-                        // Find opening tag
-                        int tagStart = text.lastIndexOf('<', selection - 2);
-                        if (tagStart >= 0 && tagStart < selection - 1) {
-                            String tag = text.substring(tagStart + 1, selection - 1).trim().split(" ")[0];
-                            if (!tag.isEmpty() && !tag.startsWith("/") && !tag.endsWith("/") &&
-                                !tag.matches("(br|hr|img|input|meta|link|area|base|col|embed|param|source|track|wbr)")) {
-                                String closeTag = "</" + tag + ">";
-                                s.insert(selection, closeTag);
-                                editor.setSelection(selection);
-                            }
-                        }
-                    }
-                }
-                
-                isProcessing = false;
-            }
-        });
+        // Every edit reaches these as a delta, in this order; the one that edits the text is last
+        editPipeline.addListener(this::indexEdit);
+        editPipeline.addListener(this::recordEdit);
+        editPipeline.addListener(this::scheduleAfterEdit);
+        editPipeline.addListener(this::autoComplete);
+        editor.addTextChangedListener(editPipeline);
         
         // Bracket matching
         editor.setOnClickListener(v -> highlightMatchingBracket());
+        editor.setOnTouchListener((v, event) -> isLargeFile && handleChunkButtonTouch(event));
         
         editorScroll.addView(editor);
         editorContainer.addView(editorScroll);
+        lineNumbers.setEditor(editor, editorScroll);
+        // Rewrapping moves the rows the numbers belong to
+        editor.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+            lineNumbers.invalidate());
+        
+        // Continuous editor for large files - lays out and draws only the visible lines
+        codeView = new CodeEditorView(this);
+        codeView.setLayoutParams(new LinearLayout.LayoutParams(
+            0,
+            LinearLayout.LayoutParams.MATCH_PARENT,
+            1));
+        codeView.setTextSize(fontSize);
+        codeView.setColors(
+            isDark ? 0xFFE0E0E0 : 0xFF000000,
+            isDark ? 0xFF1E1E1E : 0xFFFFFFFF,
+            isDark ? 0xFF666666 : 0xFF999999,
+            isDark ? 0xFF2D2D2D : 0xFFF5F5F5);
+        codeView.setVisibility(View.GONE);
+        codeView.setOnKeyListener((v, keyCode, event) -> {
+            if (event.getAction() != android.view.KeyEvent.ACTION_DOWN) return false;
+            trackInput();
+            return handleShortcutKey(keyCode, event);
+        });
+        codeView.setOnInputListener(this::trackInput);
+        codeView.setOnEditListener(new CodeEditorView.OnEditListener() {
+            @Override
+            public void onEdit(int start, CharSequence removed, CharSequence inserted) {
+                if (!isUndoRedo && !applyingTransaction) {
+                    recordHistory(start, removed, inserted);
+                }
+                editVersion++;
+                if (highlighter != null) {
+                    highlighter.edit(start, removed.length(), inserted, lineIndex.lineOfOffset(start),
+                        countNewlines(removed, 0, removed.length()));
+                }
+                scheduleAutoSave();
+            }
+
+            @Override
+            public void onBatchEdit(int start, int removedLength, int removedLines, CharSequence inserted) {
+                // Batches come from undo/redo and transactions, which record themselves
+                editVersion++;
+                if (highlighter != null) {
+                    highlighter.edit(start, removedLength, inserted, lineIndex.lineOfOffset(start), removedLines);
+                }
+                scheduleAutoSave();
+            }
+        });
+        editorContainer.addView(codeView);
         
-        // Sync scroll on touch
+        // The gutter and the spans follow the scroll position
         editorScroll.getViewTreeObserver().addOnScrollChangedListener(() -> {
-            int scrollY = editorScroll.getScrollY();
-            lineNumberScroll.scrollTo(0, scrollY);
+            lineNumbers.invalidate();
+            if (viewerMode) {
+                onViewerScrolled();
+            } else if (isLargeFile && !continuousMode) {
+                onChunkScrolled();
+            }
+            applyVisibleHighlights();
         });
         
-        mainLayout.addView(editorContainer);
+        // Latency overlay in the top corner, over the editor
+        android.widget.FrameLayout editorFrame = new android.widget.FrameLayout(this);
+        editorFrame.setLayoutParams(new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.MATCH_PARENT,
+            LinearLayout.LayoutParams.MATCH_PARENT));
+        editorFrame.addView(editorContainer);
+        latencyHud = new TextView(this);
+        latencyHud.setTypeface(android.graphics.Typeface.MONOSPACE);
+        latencyHud.setTextSize(11);
+        latencyHud.setTextColor(0xFFFFFFFF);
+        latencyHud.setBackgroundColor(0xAA000000);
+        latencyHud.setPadding(12, 8, 12, 8);
+        latencyHud.setText("Type to measure latency");
+        latencyHud.setLayoutParams(new android.widget.FrameLayout.LayoutParams(
+            android.widget.FrameLayout.LayoutParams.WRAP_CONTENT,
+            android.widget.FrameLayout.LayoutParams.WRAP_CONTENT,
+            Gravity.TOP | Gravity.END));
+        editorFrame.addView(latencyHud);
+        mainLayout.addView(editorFrame);
+        
+        latencyTracker = new LatencyTracker(this, this::scheduleLatencyHud);
+        setLatencyTracking(settingsPrefs.getBoolean("latencyHud", false));
         
         // File drawer
         LinearLayout drawer = new LinearLayout(this);
@@ -569,24 +450,8 @@ public class IDEActivity extends AppCompatActivity {
     @Override
     public void onBackPressed() {
         // Save current file before going back
-        if (currentFile != null) {
-            try {
-                // For large files, update full content from current chunk first
-                if (isLargeFile) {
-                    updateFullContentFromChunk();
-                    java.io.FileWriter writer = new java.io.FileWriter(currentFile);
-                    writer.write(fullFileContent);
-                    writer.close();
-                } else {
-                    // For small files, save editor content directly
-                    String content = editor.getText().toString();
-                    java.io.FileWriter writer = new java.io.FileWriter(currentFile);
-                    writer.write(content);
-                    writer.close();
-                }
-            } catch (Exception e) {
-                Toast.makeText(this, "Failed to save: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            }
+        if (currentFile != null && !isReadOnly()) {
+            autoSaveFile();
         }
         super.onBackPressed();
     }
@@ -596,7 +461,7 @@ public class IDEActivity extends AppCompatActivity {
         File[] files = dir.listFiles();
         
         if (files == null || files.length == 0) {
-            editor.setText("No files in project.\n\nTap the menu icon (☰) to create a new file or folder.");
+            setEditorText("No files in project.\n\nTap the menu icon (☰) to create a new file or folder.");
             editor.setEnabled(false);
         } else {
             // Find first file and open it
@@ -607,7 +472,7 @@ public class IDEActivity extends AppCompatActivity {
                 }
             }
             // If only folders exist
-            editor.setText("No files in project.\n\nTap the menu icon (☰) to create a new file.");
+            setEditorText("No files in project.\n\nTap the menu icon (☰) to create a new file.");
             editor.setEnabled(false);
         }
     }
@@ -624,6 +489,7 @@ public class IDEActivity extends AppCompatActivity {
         menu.add(0, 8, 0, "⬇ Pull from GitHub");
         menu.add(0, 9, 0, "📊 Project Statistics");
         menu.add(0, 10, 0, "⚙ Settings");
+        menu.add(0, 11, 0, "⏱ Export Latency Stats");
         return true;
     }
 
@@ -641,19 +507,31 @@ public class IDEActivity extends AppCompatActivity {
                 showFindDialog();
                 return true;
             case 2:
+                if (isReadOnly()) {
+                    showReadOnlyToast();
+                    return true;
+                }
                 showReplaceDialog();
                 return true;
             case 3:
                 showGoToLineDialog();
                 return true;
             case 4:
-                editor.selectAll();
+                if (continuousMode) {
+                    codeView.setSelection(0, document.length());
+                } else {
+                    editor.selectAll();
+                }
                 return true;
             case 5:
-                duplicateLine();
-                return true;
             case 6:
-                deleteLine();
+                if (isReadOnly()) {
+                    showReadOnlyToast();
+                } else if (item.getItemId() == 5) {
+                    duplicateLine();
+                } else {
+                    deleteLine();
+                }
                 return true;
             case 7:
                 toggleWordWrap(item);
@@ -667,10 +545,36 @@ public class IDEActivity extends AppCompatActivity {
             case 10:
                 showSettings();
                 return true;
+            case 11:
+                exportLatencyStats();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
     
+    // Ctrl shortcuts shared by the EditText and the continuous view
+    private boolean handleShortcutKey(int keyCode, android.view.KeyEvent event) {
+        if (!event.isCtrlPressed()) return false;
+        switch (keyCode) {
+            case android.view.KeyEvent.KEYCODE_S:
+                saveCurrentFile();
+                return true;
+            case android.view.KeyEvent.KEYCODE_Z:
+                undo();
+                return true;
+            case android.view.KeyEvent.KEYCODE_Y:
+                redo();
+                return true;
+            case android.view.KeyEvent.KEYCODE_F:
+                showFindDialog();
+                return true;
+            case android.view.KeyEvent.KEYCODE_M:
+                jumpToMatchingBracket();
+                return true;
+        }
+        return false;
+    }
+    
     private AlertDialog.Builder createThemedDialog() {
         return new AlertDialog.Builder(this);
     }
@@ -764,18 +668,98 @@ public class IDEActivity extends AppCompatActivity {
         });
         layout.addView(seekBar);
         
+        int currentThreshold = settingsPrefs.getInt("viewerThresholdMb", DEFAULT_VIEWER_THRESHOLD_MB);
+        TextView thresholdLabel = new TextView(this);
+        thresholdLabel.setText("Read-only viewer above: " + currentThreshold + " MB");
+        thresholdLabel.setPadding(0, 30, 0, 0);
+        layout.addView(thresholdLabel);
+        
+        android.widget.SeekBar thresholdBar = new android.widget.SeekBar(this);
+        thresholdBar.setMax(255);
+        thresholdBar.setProgress(currentThreshold - 1);
+        thresholdBar.setOnSeekBarChangeListener(new android.widget.SeekBar.OnSeekBarChangeListener() {
+            public void onProgressChanged(android.widget.SeekBar seekBar, int progress, boolean fromUser) {
+                thresholdLabel.setText("Read-only viewer above: " + (progress + 1) + " MB");
+            }
+            public void onStartTrackingTouch(android.widget.SeekBar seekBar) {}
+            public void onStopTrackingTouch(android.widget.SeekBar seekBar) {}
+        });
+        layout.addView(thresholdBar);
+        
+        android.widget.CheckBox continuousSwitch = new android.widget.CheckBox(this);
+        continuousSwitch.setText("Continuous scrolling for large files");
+        continuousSwitch.setChecked(settingsPrefs.getBoolean("continuousView", true));
+        continuousSwitch.setPadding(0, 30, 0, 0);
+        layout.addView(continuousSwitch);
+        
+        android.widget.CheckBox latencySwitch = new android.widget.CheckBox(this);
+        latencySwitch.setText("Show typing latency overlay");
+        latencySwitch.setChecked(settingsPrefs.getBoolean("latencyHud", false));
+        latencySwitch.setPadding(0, 30, 0, 0);
+        layout.addView(latencySwitch);
+        
         builder.setView(layout);
         builder.setPositiveButton("Apply", (d, w) -> {
             int size = seekBar.getProgress() + 10;
             editor.setTextSize(size);
-            lineNumbers.setTextSize(size);
-            settingsPrefs.edit().putInt("fontSize", size).apply();
+            lineNumbers.requestLayout();
+            codeView.setTextSize(size);
+            settingsPrefs.edit()
+                .putInt("fontSize", size)
+                .putInt("viewerThresholdMb", thresholdBar.getProgress() + 1)
+                .putBoolean("continuousView", continuousSwitch.isChecked())
+                .putBoolean("latencyHud", latencySwitch.isChecked())
+                .apply();
+            setLatencyTracking(latencySwitch.isChecked());
             Toast.makeText(this, "Font size: " + size + "sp", Toast.LENGTH_SHORT).show();
         });
         builder.setNegativeButton("Cancel", null);
         showThemedDialog(builder);
     }
 
+    // Measures typing latency while the overlay is shown; samples are kept when it is hidden again
+    private void setLatencyTracking(boolean enabled) {
+        latencyTracker.setEnabled(enabled);
+        latencyHud.setVisibility(enabled ? View.VISIBLE : View.GONE);
+    }
+
+    private void trackInput() {
+        latencyTracker.inputEvent(document != null ? document.length() : editor.length());
+    }
+
+    // Refreshes the overlay at most twice a second, so it barely adds to what it measures
+    private void scheduleLatencyHud() {
+        if (latencyHudPending) return;
+        latencyHudPending = true;
+        latencyHud.postDelayed(() -> {
+            latencyHudPending = false;
+            latencyHud.setText(latencyTracker.summary() + "\nspans: " + spanApplier.lastPassFrames() + " frames");
+        }, 500);
+    }
+
+    private void exportLatencyStats() {
+        if (!latencyTracker.hasSamples()) {
+            Toast.makeText(this, "No latency samples - enable the overlay in Settings and type", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String csv = latencyTracker.export();
+        File dir = getExternalFilesDir(null);
+        File out = new File(dir != null ? dir : getFilesDir(), "latency-" + System.currentTimeMillis() + ".csv");
+        executor.execute(() -> {
+            try (FileOutputStream stream = new FileOutputStream(out)) {
+                stream.write(csv.getBytes("UTF-8"));
+                runOnUiThread(() -> Toast.makeText(this, "Saved " + out.getAbsolutePath(), Toast.LENGTH_LONG).show());
+            } catch (Exception e) {
+                runOnUiThread(() -> Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    private long getViewerThreshold() {
+        SharedPreferences settingsPrefs = getSharedPreferences("GitCodeSettings", MODE_PRIVATE);
+        return settingsPrefs.getInt("viewerThresholdMb", DEFAULT_VIEWER_THRESHOLD_MB) * 1024L * 1024L;
+    }
+
     private void toggleWordWrap(MenuItem item) {
         wordWrapEnabled = !wordWrapEnabled;
         editor.setHorizontallyScrolling(!wordWrapEnabled);
@@ -784,6 +768,13 @@ public class IDEActivity extends AppCompatActivity {
     }
 
     private void duplicateLine() {
+        if (continuousMode) {
+            int line = lineIndex.lineOfOffset(codeView.getSelectionStart());
+            int lineEnd = lineIndex.lineEnd(line);
+            codeView.replace(lineEnd, lineEnd, "\n" + document.getText(lineIndex.lineStart(line), lineEnd));
+            Toast.makeText(this, "Line duplicated", Toast.LENGTH_SHORT).show();
+            return;
+        }
         int start = editor.getSelectionStart();
         String text = editor.getText().toString();
         
@@ -798,6 +789,13 @@ public class IDEActivity extends AppCompatActivity {
     }
 
     private void deleteLine() {
+        if (continuousMode) {
+            int line = lineIndex.lineOfOffset(codeView.getSelectionStart());
+            int lineStart = lineIndex.lineStart(line);
+            codeView.replace(lineStart, lineStart + lineIndex.lineLength(line), "");
+            Toast.makeText(this, "Line deleted", Toast.LENGTH_SHORT).show();
+            return;
+        }
         int start = editor.getSelectionStart();
         String text = editor.getText().toString();
         
@@ -812,71 +810,198 @@ public class IDEActivity extends AppCompatActivity {
     }
 
     private void undo() {
-        if (!undoStack.isEmpty()) {
-            if (isLargeFile) {
-                // For large files, update full content first
-                updateFullContentFromChunk();
-                redoStack.push(fullFileContent);
-                fullFileContent = undoStack.pop();
-                isUndoRedo = true;
-                // Reload current chunk
-                if (useLineBasedChunking) {
-                    loadChunkWithButtons(currentChunkLine);
-                } else {
-                    loadChunkWithButtons(currentChunkStart);
-                }
-                isUndoRedo = false;
-                Toast.makeText(this, "Undo", Toast.LENGTH_SHORT).show();
-            } else {
-                String current = editor.getText().toString();
-                redoStack.push(current);
-                String previous = undoStack.pop();
-                isUndoRedo = true;
-                editor.setText(previous);
-                if (currentFile != null) {
-                    applySyntaxHighlighting(currentFile.getName(), previous);
-                }
-                editor.setSelection(Math.min(previous.length(), editor.getText().length()));
-                isUndoRedo = false;
-                Toast.makeText(this, "Undo", Toast.LENGTH_SHORT).show();
-            }
-        } else {
+        // Chunk edits reach the document lazily - flush them so offsets line up
+        updateFullContentFromChunk();
+        EditHistory.Edit edit = history.undo();
+        if (edit == null) {
             Toast.makeText(this, "Nothing to undo", Toast.LENGTH_SHORT).show();
+            return;
         }
+        applyHistoryEdit(edit, true);
+        Toast.makeText(this, "Undo", Toast.LENGTH_SHORT).show();
     }
 
     private void redo() {
-        if (!redoStack.isEmpty()) {
-            if (isLargeFile) {
-                // For large files, update full content first
-                updateFullContentFromChunk();
-                undoStack.push(fullFileContent);
-                fullFileContent = redoStack.pop();
-                isUndoRedo = true;
-                // Reload current chunk
-                if (useLineBasedChunking) {
-                    loadChunkWithButtons(currentChunkLine);
-                } else {
-                    loadChunkWithButtons(currentChunkStart);
-                }
-                isUndoRedo = false;
-                Toast.makeText(this, "Redo", Toast.LENGTH_SHORT).show();
+        updateFullContentFromChunk();
+        EditHistory.Edit edit = history.redo();
+        if (edit == null) {
+            Toast.makeText(this, "Nothing to redo", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        applyHistoryEdit(edit, false);
+        Toast.makeText(this, "Redo", Toast.LENGTH_SHORT).show();
+    }
+
+    // Reverts (undo) or reapplies a history record, in document coordinates, without recording it
+    private void applyHistoryEdit(EditHistory.Edit edit, boolean undo) {
+        isUndoRedo = true;
+        if (continuousMode) {
+            codeView.beginBatchEdit();
+            replay(edit, undo, (offset, length, text) -> codeView.replace(offset, offset + length, text));
+            codeView.endBatchEdit();
+        } else if (isLargeFile && document != null) {
+            // Every part goes to the document, then the chunk holding the last one is shown with
+            // the cursor after it
+            int[] last = new int[2];
+            replay(edit, undo, (offset, length, text) -> {
+                replaceInDocument(offset, length, text);
+                last[0] = offset;
+                last[1] = offset + text.length();
+            });
+            showChunkAt(last[0], last[1]);
+        } else {
+            // A record of several parts is laid out once
+            editor.beginBatchEdit();
+            replay(edit, undo, (offset, length, text) -> {
+                editor.getText().replace(offset, offset + length, text);
+                editor.setSelection(Math.min(offset + text.length(), editor.getText().length()));
+            });
+            editor.endBatchEdit();
+        }
+        isUndoRedo = false;
+    }
+
+    private static void replay(EditHistory.Edit edit, boolean undo, EditHistory.Replayer target) {
+        if (undo) {
+            edit.revert(target);
+        } else {
+            edit.reapply(target);
+        }
+    }
+
+    // Applies a transaction built on the text on screen - the document in the continuous view,
+    // the editor text otherwise - as one batch with one history step. The editor lays out once
+    // and the line index takes each part as a small edit; the continuous view hands the
+    // highlighter the range the batch changed once it is done.
+    private void applyTransaction(EditTransaction transaction) {
+        if (transaction.size() == 0) return;
+        EditHistory.Edit[] applied;
+        applyingTransaction = true;
+        if (continuousMode) {
+            codeView.beginBatchEdit();
+            try {
+                applied = transaction.apply((offset, length, text) -> codeView.replace(offset, offset + length, text), 0);
+            } finally {
+                codeView.endBatchEdit();
+                applyingTransaction = false;
+            }
+        } else {
+            editor.beginBatchEdit();
+            try {
+                // Chunk edits are recorded in document coordinates
+                applied = transaction.apply((offset, length, text) -> editor.getText().replace(offset, offset + length, text),
+                    isLargeFile ? currentChunkStart - chunkDisplayOffset : 0);
+            } finally {
+                editor.endBatchEdit();
+                applyingTransaction = false;
+            }
+        }
+        if (!isReadOnly() && currentFile != null) {
+            history.recordBatch(applied);
+        }
+    }
+
+    // Finds text in the document by its pieces and in the editor text in place, copying neither
+    private static int indexOf(CharSequence text, String find, int from) {
+        return text instanceof PieceTable ? ((PieceTable) text).indexOf(find, from) : android.text.TextUtils.indexOf(text, find, from);
+    }
+
+    // Indents the lines the selection touches by four spaces, or takes up to four spaces (or a
+    // tab) off each, as one transaction; the selection then covers those lines
+    private void indentLines(boolean outdent) {
+        LineIndex lines = editorLines();
+        android.text.Editable text = editor.getText();
+        int start = Math.min(editor.getSelectionStart(), editor.getSelectionEnd());
+        int end = Math.max(editor.getSelectionStart(), editor.getSelectionEnd());
+        int first = lines.lineOfOffset(start);
+        int last = lines.lineOfOffset(end);
+        // A selection ending at the start of a line does not take that line in
+        if (last > first && lines.lineStart(last) == end) last--;
+        // The load buttons around a chunk are left alone
+        if (isLargeFile) {
+            first = Math.max(first, chunkFirstEditorLine);
+            last = Math.min(last, chunkLines.lineOfOffset(text.length() - chunkFooterLength));
+        }
+        if (first > last) return;
+        EditTransaction transaction = new EditTransaction(text);
+        for (int line = first; line <= last; line++) {
+            int lineStart = lines.lineStart(line);
+            if (!outdent) {
+                transaction.insert(lineStart, "    ");
+                continue;
+            }
+            int lineEnd = lines.lineEnd(line);
+            int remove = 0;
+            if (lineStart < lineEnd && text.charAt(lineStart) == '\t') {
+                remove = 1;
             } else {
-                String current = editor.getText().toString();
-                undoStack.push(current);
-                String next = redoStack.pop();
-                isUndoRedo = true;
-                editor.setText(next);
-                if (currentFile != null) {
-                    applySyntaxHighlighting(currentFile.getName(), next);
-                }
-                editor.setSelection(Math.min(next.length(), editor.getText().length()));
-                isUndoRedo = false;
-                Toast.makeText(this, "Redo", Toast.LENGTH_SHORT).show();
+                while (remove < 4 && lineStart + remove < lineEnd && text.charAt(lineStart + remove) == ' ') remove++;
             }
+            if (remove > 0) transaction.replace(lineStart, lineStart + remove, "");
+        }
+        applyTransaction(transaction);
+        editor.setSelection(lines.lineStart(first), lines.lineEnd(last));
+    }
+
+    // Edits the document of a chunked large file directly; the chunk on screen is not updated
+    private void replaceInDocument(int offset, int length, CharSequence text) {
+        if (highlighter != null) {
+            int line = lineIndex.lineOfOffset(offset);
+            highlighter.edit(offset, length, text, line, lineIndex.lineOfOffset(offset + length) - line);
+        }
+        lineIndex.update(offset, length, text);
+        document.replace(offset, offset + length, text);
+        editVersion++;
+    }
+
+    // Loads the chunk holding offset and puts the cursor at cursor, both in document coordinates
+    private void showChunkAt(int offset, int cursor) {
+        if (useLineBasedChunking) {
+            loadChunkWithButtons((lineIndex.lineOfOffset(offset) / CHUNK_LINES) * CHUNK_LINES);
         } else {
-            Toast.makeText(this, "Nothing to redo", Toast.LENGTH_SHORT).show();
+            loadChunkWithButtons(offset);
+        }
+        int position = chunkDisplayOffset + cursor - currentChunkStart;
+        editor.setSelection(Math.max(0, Math.min(position, editor.getText().length())));
+    }
+
+    // Applies a paste or replacement of BULK_INSERT_CHARS or more to the document in one edit,
+    // instead of through the editor's per-keystroke listeners: the line index and highlighter
+    // take the edited range once, the history gets one step and nothing auto-indents. A small
+    // file grown this large moves to the large-file view, as if it had been opened that size.
+    // start and end are editor offsets. Returns false, leaving the edit to the caller, for
+    // shorter text or a range the document path does not cover.
+    private boolean bulkReplace(int start, int end, CharSequence text) {
+        if (text.length() < BULK_INSERT_CHARS || isReadOnly() || continuousMode || currentFile == null) return false;
+        int from = Math.min(start, end);
+        int to = Math.max(start, end);
+        boolean wasSmall = !isLargeFile;
+        if (wasSmall) {
+            if (lineIndex == null) return false;
+            // The small file's index already describes the editor text
+            document = new PieceTable(editor.getText().toString());
+        } else {
+            // Ranges reaching into the load buttons are left to the chunk's own filter
+            if (document == null || from < chunkDisplayOffset || to > editor.length() - chunkFooterLength) return false;
+            updateFullContentFromChunk();
+            from += currentChunkStart - chunkDisplayOffset;
+            to += currentChunkStart - chunkDisplayOffset;
+        }
+        recordHistory(from, document.getText(from, to), text);
+        replaceInDocument(from, to - from, text);
+        int cursor = from + text.length();
+        if (wasSmall) {
+            isLargeFile = true;
+            useLineBasedChunking = false;
+            showLargeDocument();
+        }
+        if (continuousMode) {
+            codeView.setSelection(cursor);
+        } else {
+            showChunkAt(cursor, cursor);
         }
+        scheduleAutoSave();
+        return true;
     }
 
     private int currentFindIndex = 0;
@@ -884,14 +1009,42 @@ public class IDEActivity extends AppCompatActivity {
     private String lastSearchText = "";
     private String lastReplaceText = "";
     private boolean isLargeFile = false;
-    private String fullFileContent = "";
+    private PieceTable document;
+    private LineIndex lineIndex;
     private int currentChunkStart = 0;
+    private int currentChunkEnd = 0;
+    private int chunkDisplayOffset = 0; // Length of the "Load Previous" button text before the chunk
+    private int chunkFooterLength = 0; // Length of the "Load Next" button text after the chunk
+    private LineIndex chunkLines; // Index of the editor text while a chunk is shown
+    private int chunkFirstEditorLine = 0; // Editor line holding the start of the chunk
+    private int chunkFirstLine = 0; // Document line holding the start of the chunk
+    private int chunkFirstColumn = 0; // Where the chunk starts within that line
+    private boolean chunkDirty = false;
     private int currentChunkLine = 0; // For line-based chunking
     private static final int CHUNK_SIZE = 10000; // Characters per chunk
     private static final int CHUNK_LINES = 500; // Lines per chunk for line-based files
+    private static final int WINDOW_CHUNKS = 2; // A window shows two chunks and moves by one, so the lines in view stay loaded
+    private boolean chunkShifting = false;
+    private final ChunkWindow[] prefetchedWindows = new ChunkWindow[2]; // The windows a chunk before and after
+    private volatile int prefetchGeneration = 0; // Bumped on every chunk load so prefetches for an older one are dropped
     private boolean useLineBasedChunking = false;
+    private boolean viewerMode = false; // Read-only memory-mapped viewer for files above the threshold
+    private boolean fileLoading = false; // A large file is still streaming in on fileLoadExecutor
+    private MappedTextFile mappedFile;
+    private int viewerFirstLine = 0;
+    private boolean viewerShifting = false;
+    private static final int VIEWER_WINDOW_LINES = 400;
+    private static final int DEFAULT_VIEWER_THRESHOLD_MB = 16;
+    private static final int LOAD_BUFFER_SIZE = 64 * 1024;
+    private static final int LOAD_PROGRESS_CHARS = 1024 * 1024;
+    private static final String LOADING_FOOTER = "\n\n··· LOADING ";
+    private static final int EDITOR_INPUT_TYPE = InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS | InputType.TYPE_TEXT_FLAG_AUTO_CORRECT;
     
     private void showFindDialog() {
+        if (viewerMode) {
+            showViewerFindDialog();
+            return;
+        }
         AlertDialog.Builder builder = createThemedDialog();
         builder.setTitle("Find");
         
@@ -916,17 +1069,16 @@ public class IDEActivity extends AppCompatActivity {
                 findOccurrences.clear();
                 currentFindIndex = 0;
                 
-                String text = editor.getText().toString();
+                String text = continuousMode ? null : editor.getText().toString();
                 int index = 0;
-                while ((index = text.indexOf(search, index)) >= 0) {
+                while ((index = continuousMode ? document.indexOf(search, index) : text.indexOf(search, index)) >= 0) {
                     findOccurrences.add(index);
                     index += search.length();
                 }
                 
                 if (!findOccurrences.isEmpty()) {
                     int pos = findOccurrences.get(0);
-                    editor.setSelection(pos, pos + search.length());
-                    editor.requestFocus();
+                    selectFound(pos, pos + search.length());
                     Toast.makeText(this, "Found " + findOccurrences.size() + " occurrences", Toast.LENGTH_SHORT).show();
                 } else {
                     Toast.makeText(this, "Not found", Toast.LENGTH_SHORT).show();
@@ -937,8 +1089,7 @@ public class IDEActivity extends AppCompatActivity {
             if (!findOccurrences.isEmpty() && !lastSearchText.isEmpty()) {
                 currentFindIndex = (currentFindIndex + 1) % findOccurrences.size();
                 int pos = findOccurrences.get(currentFindIndex);
-                editor.setSelection(pos, pos + lastSearchText.length());
-                editor.requestFocus();
+                selectFound(pos, pos + lastSearchText.length());
                 Toast.makeText(this, (currentFindIndex + 1) + " of " + findOccurrences.size(), Toast.LENGTH_SHORT).show();
             }
         });
@@ -946,6 +1097,16 @@ public class IDEActivity extends AppCompatActivity {
         showThemedDialog(builder);
     }
 
+    private void selectFound(int start, int end) {
+        if (continuousMode) {
+            codeView.setSelection(start, end);
+            codeView.requestFocus();
+        } else {
+            editor.setSelection(start, end);
+            editor.requestFocus();
+        }
+    }
+
     private void showReplaceDialog() {
         AlertDialog.Builder builder = createThemedDialog();
         builder.setTitle("Find & Replace");
@@ -971,19 +1132,22 @@ public class IDEActivity extends AppCompatActivity {
             lastSearchText = find;
             lastReplaceText = replace;
             if (!find.isEmpty()) {
-                String text = editor.getText().toString();
-                int count = 0;
-                int index = 0;
-                while ((index = text.indexOf(find, index)) != -1) {
-                    count++;
+                // Each occurrence is replaced on its own, and all of them are one undo step
+                CharSequence text = continuousMode ? document : editor.getText();
+                // A chunk's load buttons are not searched
+                int from = continuousMode || !isLargeFile ? 0 : chunkDisplayOffset;
+                int to = continuousMode || !isLargeFile ? text.length() : text.length() - chunkFooterLength;
+                EditTransaction transaction = new EditTransaction(text);
+                int index = from;
+                while ((index = indexOf(text, find, index)) >= 0 && index + find.length() <= to) {
+                    transaction.replace(index, index + find.length(), replace);
                     index += find.length();
                 }
-                
+                int count = transaction.size();
                 if (count > 0) {
-                    String newText = text.replace(find, replace);
-                    int cursorPos = editor.getSelectionStart();
-                    editor.setText(newText);
-                    if (cursorPos <= newText.length()) {
+                    int cursorPos = continuousMode ? codeView.getSelectionStart() : editor.getSelectionStart();
+                    applyTransaction(transaction);
+                    if (!continuousMode && cursorPos <= editor.getText().length()) {
                         editor.setSelection(cursorPos);
                     }
                     Toast.makeText(this, "Replaced " + count + " occurrences", Toast.LENGTH_SHORT).show();
@@ -997,16 +1161,27 @@ public class IDEActivity extends AppCompatActivity {
             String replace = replaceInput.getText().toString();
             lastSearchText = find;
             lastReplaceText = replace;
-            if (!find.isEmpty()) {
-                String text = editor.getText().toString();
+            if (!find.isEmpty() && continuousMode) {
+                int index = document.indexOf(find, codeView.getSelectionStart());
+                if (index < 0) {
+                    index = document.indexOf(find, 0);
+                }
+                if (index >= 0) {
+                    codeView.replace(index, index + find.length(), replace);
+                    codeView.setSelection(index, index + replace.length());
+                    Toast.makeText(this, "Replaced 1 occurrence", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, "No more occurrences", Toast.LENGTH_SHORT).show();
+                }
+            } else if (!find.isEmpty()) {
+                CharSequence text = editor.getText();
                 int start = editor.getSelectionStart();
-                int index = text.indexOf(find, start);
+                int index = indexOf(text, find, start);
                 if (index < 0) {
-                    index = text.indexOf(find);
+                    index = indexOf(text, find, 0);
                 }
                 if (index >= 0) {
-                    String newText = text.substring(0, index) + replace + text.substring(index + find.length());
-                    editor.setText(newText);
+                    editor.getText().replace(index, index + find.length(), replace);
                     editor.setSelection(index, index + replace.length());
                     Toast.makeText(this, "Replaced 1 occurrence", Toast.LENGTH_SHORT).show();
                 } else {
@@ -1019,9 +1194,13 @@ public class IDEActivity extends AppCompatActivity {
     }
 
     private void showGoToLineDialog() {
+        if (fileLoading) {
+            showReadOnlyToast();
+            return;
+        }
         AlertDialog.Builder builder = createThemedDialog();
         
-        if (isLargeFile) {
+        if (isLargeFile && !continuousMode) {
             builder.setTitle("Go to Line or Part");
             android.widget.LinearLayout layout = new android.widget.LinearLayout(this);
             layout.setOrientation(android.widget.LinearLayout.VERTICAL);
@@ -1058,12 +1237,11 @@ public class IDEActivity extends AppCompatActivity {
                     // Go to line in full file
                     try {
                         int line = Integer.parseInt(lineStr);
-                        String[] allLines = fullFileContent.split("\n", -1);
+                        // Save current chunk before counting lines
+                        updateFullContentFromChunk();
+                        int totalLines = lineIndex.lineCount();
                         
-                        if (line > 0 && line <= allLines.length) {
-                            // Save current chunk before loading new one
-                            updateFullContentFromChunk();
-                            
+                        if (line > 0 && line <= totalLines) {
                             // Load the chunk containing this line
                             if (useLineBasedChunking) {
                                 // For line-based: calculate which chunk contains this line
@@ -1071,59 +1249,17 @@ public class IDEActivity extends AppCompatActivity {
                                 loadChunkWithButtons(targetChunkLine);
                             } else {
                                 // For character-based: calculate character position
-                                int charPos = 0;
-                                for (int i = 0; i < line - 1; i++) {
-                                    charPos += allLines[i].length() + 1;
-                                }
-                                loadChunkWithButtons(charPos);
-                            }
-                            
-                            // Now find the exact cursor position in the displayed text
-                            String displayedText = editor.getText().toString();
-                            
-                            // Find where the actual code starts (after prev button if present)
-                            int codeStartInDisplay = 0;
-                            if (displayedText.startsWith("▲▲▲")) {
-                                int endOfButton = displayedText.indexOf("\n\n");
-                                if (endOfButton > 0) {
-                                    codeStartInDisplay = endOfButton + 2;
-                                }
-                            }
-                            
-                            // Calculate which line in the full file corresponds to first line of current chunk
-                            int firstLineOfChunk = fullFileContent.substring(0, currentChunkStart).split("\n", -1).length;
-                            if (currentChunkStart == 0) firstLineOfChunk = 1;
-                            
-                            // Calculate how many lines into the displayed code we need to go
-                            int linesIntoChunk = line - firstLineOfChunk;
-                            
-                            // Find cursor position by counting lines in the displayed code (not including buttons)
-                            int cursorPos = codeStartInDisplay;
-                            String codeContent = displayedText.substring(codeStartInDisplay);
-                            
-                            // Remove next button if present
-                            if (codeContent.endsWith("▼▼▼")) {
-                                int buttonStart = codeContent.lastIndexOf("\n\n▼▼▼");
-                                if (buttonStart > 0) {
-                                    codeContent = codeContent.substring(0, buttonStart);
-                                }
-                            }
-                            
-                            // Now count lines in the actual code
-                            String[] codeLines = codeContent.split("\n", -1);
-                            for (int i = 0; i < linesIntoChunk && i < codeLines.length; i++) {
-                                cursorPos += codeLines[i].length() + 1;
+                                loadChunkWithButtons(lineIndex.lineStart(line - 1));
                             }
                             
-                            // Set cursor to line start
-                            if (cursorPos <= displayedText.length()) {
-                                editor.setSelection(Math.min(cursorPos, displayedText.length()));
-                                editor.requestFocus();
-                            }
+                            // Cursor goes to the line start, shifted past the "Load Previous" button
+                            int cursorPos = chunkDisplayOffset + lineIndex.lineStart(line - 1) - currentChunkStart;
+                            editor.setSelection(Math.max(0, Math.min(cursorPos, editor.getText().length())));
+                            editor.requestFocus();
                             
                             Toast.makeText(this, "Line " + line, Toast.LENGTH_SHORT).show();
                         } else {
-                            Toast.makeText(this, "Invalid line number (1-" + allLines.length + ")", Toast.LENGTH_SHORT).show();
+                            Toast.makeText(this, "Invalid line number (1-" + totalLines + ")", Toast.LENGTH_SHORT).show();
                         }
                     } catch (Exception e) {
                         Toast.makeText(this, "Invalid line number", Toast.LENGTH_SHORT).show();
@@ -1134,12 +1270,11 @@ public class IDEActivity extends AppCompatActivity {
                         int part = Integer.parseInt(partStr);
                         int totalParts;
                         
+                        updateFullContentFromChunk();
                         if (useLineBasedChunking) {
-                            String[] allLines = fullFileContent.split("\n", -1);
-                            totalParts = (allLines.length + CHUNK_LINES - 1) / CHUNK_LINES;
+                            totalParts = (lineIndex.lineCount() + CHUNK_LINES - 1) / CHUNK_LINES;
                             
                             if (part > 0 && part <= totalParts) {
-                                updateFullContentFromChunk();
                                 int startLine = (part - 1) * CHUNK_LINES;
                                 loadChunkWithButtons(startLine);
                                 Toast.makeText(this, "Part " + part + "/" + totalParts, Toast.LENGTH_SHORT).show();
@@ -1147,10 +1282,9 @@ public class IDEActivity extends AppCompatActivity {
                                 Toast.makeText(this, "Invalid part number (1-" + totalParts + ")", Toast.LENGTH_SHORT).show();
                             }
                         } else {
-                            totalParts = (fullFileContent.length() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                            totalParts = (document.length() + CHUNK_SIZE - 1) / CHUNK_SIZE;
                             
                             if (part > 0 && part <= totalParts) {
-                                updateFullContentFromChunk();
                                 loadChunkWithButtons((part - 1) * CHUNK_SIZE);
                                 Toast.makeText(this, "Part " + part + "/" + totalParts, Toast.LENGTH_SHORT).show();
                             } else {
@@ -1177,15 +1311,22 @@ public class IDEActivity extends AppCompatActivity {
             builder.setPositiveButton("Go", (d, w) -> {
                 try {
                     int line = Integer.parseInt(input.getText().toString());
-                    String text = editor.getText().toString();
-                    String[] lines = text.split("\n", -1);
-                    
-                    if (line > 0 && line <= lines.length) {
-                        int pos = 0;
-                        for (int i = 0; i < line - 1; i++) {
-                            pos += lines[i].length() + 1;
+                    if (viewerMode) {
+                        if (mappedFile != null && line > 0 && line <= mappedFile.lineCount()) {
+                            showViewerPosition(line - 1, 0, 0);
+                            Toast.makeText(this, "Line " + line, Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(this, "Invalid line number", Toast.LENGTH_SHORT).show();
                         }
-                        editor.setSelection(pos);
+                        return;
+                    }
+                    if (continuousMode && line > 0 && line <= lineIndex.lineCount()) {
+                        codeView.goToLine(line - 1);
+                        codeView.requestFocus();
+                        Toast.makeText(this, "Line " + line, Toast.LENGTH_SHORT).show();
+                    } else if (lineIndex != null && line > 0 && line <= lineIndex.lineCount()) {
+                        int pos = lineIndex.lineStart(line - 1);
+                        editor.setSelection(Math.min(pos, editor.getText().length()));
                         editor.requestFocus();
                         Toast.makeText(this, "Line " + line, Toast.LENGTH_SHORT).show();
                     } else {
@@ -1499,7 +1640,7 @@ public class IDEActivity extends AppCompatActivity {
                     deleted++;
                     if (currentFile != null && currentFile.equals(file)) {
                         currentFile = null;
-                        editor.setText("");
+                        setEditorText("");
                         if (getSupportActionBar() != null) {
                             getSupportActionBar().setSubtitle("");
                         }
@@ -1653,7 +1794,7 @@ public class IDEActivity extends AppCompatActivity {
             if (deleteRecursive(file)) {
                 if (currentFile != null && currentFile.equals(file)) {
                     currentFile = null;
-                    editor.setText("");
+                    setEditorText("");
                     if (getSupportActionBar() != null) {
                         getSupportActionBar().setSubtitle("");
                     }
@@ -1714,8 +1855,22 @@ public class IDEActivity extends AppCompatActivity {
             if (currentFile != null && !currentFile.equals(file)) {
                 autoSaveFile();
             }
+            closeViewer();
+            cancelProgressiveOpen();
+            showContinuousView(false);
+            openGeneration++;
+            stopHighlighting();
+            chunkLines = null;
             
             long fileSize = file.length();
+            if (fileSize > getViewerThreshold()) {
+                openInViewer(file);
+                return;
+            }
+            if (fileSize > CHUNK_SIZE) {
+                openProgressively(file, fileSize);
+                return;
+            }
             
             FileInputStream fis = new FileInputStream(file);
             byte[] data = new byte[(int) fileSize];
@@ -1724,33 +1879,32 @@ public class IDEActivity extends AppCompatActivity {
             
             currentFile = file;
             String content = new String(data);
+            switchHistory(file);
             
             // Check if large file: >10KB OR 1000+ lines
-            int lineCount = content.split("\n", -1).length;
+            LineIndex contentLines = new LineIndex(content);
+            int lineCount = contentLines.lineCount();
             boolean largeBySize = fileSize > 10000;
             boolean largeByLines = lineCount >= 1000;
             isLargeFile = largeBySize || largeByLines;
             useLineBasedChunking = largeByLines && !largeBySize; // Use line-based if triggered by line count
             
-            undoStack.clear();
-            redoStack.clear();
-            
             if (isLargeFile) {
                 // Store full content
-                fullFileContent = content;
-                currentChunkStart = 0;
-                
-                // Load first chunk
-                loadChunkWithButtons(0);
-                
-                Toast.makeText(this, "Large file - use Load buttons to navigate", Toast.LENGTH_SHORT).show();
+                document = new PieceTable(content);
+                lineIndex = contentLines;
+                showLargeDocument();
             } else {
-                fullFileContent = "";
+                document = null;
                 useLineBasedChunking = false;
-                editor.setText(content);
+                lineIndex = null;
+                setEditorText(content);
+                lineIndex = contentLines;
+                lineNumbers.setNumbering(lineIndex, 0, 0, 1);
                 editor.setEnabled(true);
-                applySyntaxHighlighting(file.getName(), content);
+                startHighlighting();
             }
+            recoverWhenReady();
             
             saveFileState(file);
             updateTabsAndUI(file);
@@ -1759,44 +1913,380 @@ public class IDEActivity extends AppCompatActivity {
         }
     }
     
-    private void loadChunkWithButtons(int position) {
-        if (fullFileContent.isEmpty()) return;
-        
-        String chunk;
-        int currentPart, totalParts;
+    // Streams a large file in on fileLoadExecutor. The first chunk is shown as soon as it has
+    // been decoded; line count, parts and highlighting follow once the whole file is in.
+    private void openProgressively(File file, long fileSize) {
+        int generation = openGeneration;
+        fileLoading = true;
+        currentFile = file;
+        isLargeFile = true;
+        useLineBasedChunking = false;
+        document = null;
+        lineIndex = null;
+        switchHistory(file);
+        
+        editor.setKeyListener(null);
+        setEditorText("");
+        editor.setEnabled(true);
         
-        if (useLineBasedChunking) {
-            // Line-based chunking - position is a line number
-            String[] allLines = fullFileContent.split("\n", -1);
-            currentChunkLine = position;
-            int endLine = Math.min(currentChunkLine + CHUNK_LINES, allLines.length);
-            
-            currentPart = (currentChunkLine / CHUNK_LINES) + 1;
-            totalParts = (allLines.length + CHUNK_LINES - 1) / CHUNK_LINES;
-            
-            // Calculate character position for startLine
+        fileLoadExecutor.execute(() -> {
+            try (FileInputStream in = new FileInputStream(file)) {
+                java.nio.charset.CharsetDecoder decoder = java.nio.charset.StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(java.nio.charset.CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(java.nio.charset.CodingErrorAction.REPLACE);
+                // UTF-8 never decodes to more chars than bytes, so chars cannot overflow
+                java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate(LOAD_BUFFER_SIZE);
+                java.nio.CharBuffer chars = java.nio.CharBuffer.allocate(LOAD_BUFFER_SIZE);
+                StringBuilder content = new StringBuilder((int) Math.min(fileSize, Integer.MAX_VALUE - 8));
+                int lines = 1;
+                int nextProgress = LOAD_PROGRESS_CHARS;
+                boolean firstScreenShown = false;
+                boolean eof = false;
+                
+                while (!eof) {
+                    if (generation != openGeneration) return;
+                    int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        bytes.position(bytes.position() + read);
+                    }
+                    bytes.flip();
+                    decoder.decode(bytes, chars, eof);
+                    if (eof) decoder.flush(chars);
+                    bytes.compact();
+                    chars.flip();
+                    for (int i = chars.position(); i < chars.limit(); i++) {
+                        if (chars.get(i) == '\n') lines++;
+                    }
+                    content.append(chars);
+                    chars.clear();
+                    
+                    if (!firstScreenShown && (content.length() >= CHUNK_SIZE || eof)) {
+                        firstScreenShown = true;
+                        String firstScreen = content.substring(0, Math.min(CHUNK_SIZE, content.length()));
+                        runOnUiThread(() -> {
+                            if (generation != openGeneration) return;
+                            setEditorText(firstScreen + LOADING_FOOTER + "...");
+                            lineNumbers.setNumbering(new LineIndex(firstScreen), 0, 0, 1);
+                        });
+                    } else if (content.length() >= nextProgress && !eof) {
+                        nextProgress += LOAD_PROGRESS_CHARS;
+                        int linesSoFar = lines;
+                        runOnUiThread(() -> {
+                            if (generation != openGeneration) return;
+                            updateLoadingFooter(linesSoFar + " lines");
+                        });
+                    }
+                }
+                
+                String text = content.toString();
+                content = null;
+                PieceTable loaded = new PieceTable(text);
+                LineIndex loadedLines = new LineIndex(text);
+                runOnUiThread(() -> {
+                    if (generation != openGeneration) return;
+                    fileLoading = false;
+                    restoreEditing();
+                    document = loaded;
+                    lineIndex = loadedLines;
+                    showLargeDocument();
+                    recoverWhenReady();
+                });
+            } catch (Exception e) {
+                runOnUiThread(() -> {
+                    if (generation != openGeneration) return;
+                    cancelProgressiveOpen();
+                    setEditorText("");
+                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                });
+            }
+        });
+        
+        saveFileState(file);
+        updateTabsAndUI(file);
+    }
+    
+    // Shows a loaded large document in the continuous view, or as chunks with load buttons
+    private void showLargeDocument() {
+        SharedPreferences settingsPrefs = getSharedPreferences("GitCodeSettings", MODE_PRIVATE);
+        // Chunks are EditText, whose layout stalls on a minified line; the continuous view
+        // segments such lines
+        if (settingsPrefs.getBoolean("continuousView", true) || CodeEditorView.hasLongLines(lineIndex)) {
+            showContinuousView(true);
+            setEditorText("");
+            codeView.setDocument(document, lineIndex);
+            codeView.setSelection(0);
+            startHighlighting();
+        } else {
             currentChunkStart = 0;
-            for (int i = 0; i < currentChunkLine; i++) {
-                currentChunkStart += allLines[i].length() + 1;
+            loadChunkWithButtons(0);
+            startHighlighting();
+            Toast.makeText(this, "Large file - use Load buttons to navigate", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private void showContinuousView(boolean show) {
+        continuousMode = show;
+        codeView.setVisibility(show ? View.VISIBLE : View.GONE);
+        editorScroll.setVisibility(show ? View.GONE : View.VISIBLE);
+        lineNumbers.setVisibility(show ? View.GONE : View.VISIBLE);
+    }
+    
+    // Rewrites the status line under the first screen while the rest of the file loads
+    private void updateLoadingFooter(String status) {
+        android.text.Editable text = editor.getText();
+        int footer = text.toString().lastIndexOf(LOADING_FOOTER);
+        if (footer < 0) return;
+        text.replace(footer + LOADING_FOOTER.length(), text.length(), status);
+    }
+    
+    private void cancelProgressiveOpen() {
+        if (!fileLoading) return;
+        fileLoading = false;
+        restoreEditing();
+    }
+    
+    private boolean isReadOnly() {
+        return viewerMode || fileLoading;
+    }
+    
+    private void showReadOnlyToast() {
+        Toast.makeText(this, viewerMode ? "Read-only viewer" : "File is still loading", Toast.LENGTH_SHORT).show();
+    }
+    
+    private void restoreEditing() {
+        editor.setInputType(EDITOR_INPUT_TYPE);
+        editor.setHorizontallyScrolling(!wordWrapEnabled);
+    }
+    
+    private void openInViewer(File file) {
+        int generation = openGeneration;
+        viewerMode = true;
+        currentFile = file;
+        isLargeFile = false;
+        document = null;
+        lineIndex = null;
+        switchHistory(null);
+        
+        editor.setKeyListener(null);
+        setEditorText("Indexing " + file.getName() + "...");
+        editor.setEnabled(true);
+        
+        fileLoadExecutor.execute(() -> {
+            try {
+                MappedTextFile mapped = new MappedTextFile(file);
+                runOnUiThread(() -> {
+                    if (generation != openGeneration) {
+                        try {
+                            mapped.close();
+                        } catch (Exception e) {
+                            // Ignore
+                        }
+                        return;
+                    }
+                    mappedFile = mapped;
+                    loadViewerWindow(0);
+                    Toast.makeText(this, "Read-only viewer - " + mapped.lineCount() + " lines", Toast.LENGTH_SHORT).show();
+                });
+            } catch (Exception e) {
+                runOnUiThread(() -> {
+                    if (generation == openGeneration) {
+                        setEditorText("Failed to open " + file.getName() + ": " + e.getMessage());
+                    }
+                });
             }
-            
-            // Build chunk from lines
-            StringBuilder chunkBuilder = new StringBuilder();
-            for (int i = currentChunkLine; i < endLine; i++) {
-                chunkBuilder.append(allLines[i]);
-                if (i < endLine - 1) chunkBuilder.append("\n");
+        });
+        
+        saveFileState(file);
+        updateTabsAndUI(file);
+    }
+    
+    private void closeViewer() {
+        if (!viewerMode) return;
+        viewerMode = false;
+        if (mappedFile != null) {
+            try {
+                mappedFile.close();
+            } catch (Exception e) {
+                // Ignore
             }
-            chunk = chunkBuilder.toString();
+            mappedFile = null;
+        }
+        restoreEditing();
+    }
+    
+    private void loadViewerWindow(int firstLine) {
+        int totalLines = mappedFile.lineCount();
+        viewerFirstLine = Math.max(0, Math.min(firstLine, totalLines - VIEWER_WINDOW_LINES));
+        int count = Math.min(VIEWER_WINDOW_LINES, totalLines - viewerFirstLine);
+        String window = mappedFile.readLines(viewerFirstLine, count);
+        setEditorText(window);
+        lineNumbers.setNumbering(new LineIndex(window), 0, 0, viewerFirstLine + 1);
+    }
+    
+    // Slides the window when the user scrolls close to either end of it
+    private void onViewerScrolled() {
+        if (mappedFile == null || viewerShifting || editor.getLayout() == null) return;
+        int scrollY = editorScroll.getScrollY();
+        int margin = editorScroll.getHeight();
+        if (scrollY + 2 * margin >= editor.getHeight() && viewerFirstLine + VIEWER_WINDOW_LINES < mappedFile.lineCount()) {
+            shiftViewerWindow(VIEWER_WINDOW_LINES / 2);
+        } else if (scrollY < margin && viewerFirstLine > 0) {
+            shiftViewerWindow(-VIEWER_WINDOW_LINES / 2);
+        }
+    }
+    
+    // Moves the window by delta lines, keeping the line at the top of the screen in place
+    private void shiftViewerWindow(int delta) {
+        android.text.Layout layout = editor.getLayout();
+        int y = Math.max(0, editorScroll.getScrollY() - editor.getTotalPaddingTop());
+        int topLayoutLine = layout.getLineForVertical(y);
+        int pixelsIntoLine = y - layout.getLineTop(topLayoutLine);
+        int topOffset = layout.getLineStart(topLayoutLine);
+        int topFileLine = viewerFirstLine + countNewlines(editor.getText(), 0, topOffset);
+        
+        viewerShifting = true;
+        loadViewerWindow(viewerFirstLine + delta);
+        int offset = offsetOfWindowLine(topFileLine - viewerFirstLine);
+        editorScroll.post(() -> {
+            android.text.Layout newLayout = editor.getLayout();
+            if (newLayout != null) {
+                int top = newLayout.getLineTop(newLayout.getLineForOffset(offset));
+                editorScroll.scrollTo(0, top + pixelsIntoLine + editor.getTotalPaddingTop());
+            }
+            viewerShifting = false;
+        });
+    }
+    
+    // Loads the window around a file line and selects length chars from column
+    private void showViewerPosition(int line, int column, int length) {
+        viewerShifting = true;
+        loadViewerWindow(line - VIEWER_WINDOW_LINES / 4);
+        int textLength = editor.getText().length();
+        int pos = Math.min(offsetOfWindowLine(line - viewerFirstLine) + column, textLength);
+        editor.setSelection(pos, Math.min(pos + length, textLength));
+        editor.requestFocus();
+        editorScroll.post(() -> {
+            android.text.Layout layout = editor.getLayout();
+            if (layout != null) {
+                editorScroll.scrollTo(0, layout.getLineTop(layout.getLineForOffset(pos)) + editor.getTotalPaddingTop());
+            }
+            viewerShifting = false;
+        });
+    }
+    
+    private void showViewerFindDialog() {
+        AlertDialog.Builder builder = createThemedDialog();
+        builder.setTitle("Find");
+        
+        EditText input = new EditText(this);
+        input.setHint("Search text");
+        input.setText(lastSearchText);
+        input.setPadding(50, 20, 50, 20);
+        builder.setView(input);
+        builder.setPositiveButton("Find Next", (d, w) -> {
+            String search = input.getText().toString();
+            if (search.isEmpty() || mappedFile == null) return;
+            lastSearchText = search;
+            
+            // Search from just after the cursor (or the previous hit) in file byte offsets
+            CharSequence text = editor.getText();
+            int cursor = Math.max(0, editor.getSelectionStart());
+            int lineStart = cursor;
+            while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+            int cursorLine = viewerFirstLine + countNewlines(text, 0, lineStart);
+            String beforeCursor = text.subSequence(lineStart, cursor).toString();
+            long from = mappedFile.lineOffset(cursorLine)
+                + beforeCursor.getBytes(java.nio.charset.StandardCharsets.UTF_8).length
+                + (editor.getSelectionEnd() > cursor ? 1 : 0);
+            
+            MappedTextFile mapped = mappedFile;
+            int generation = openGeneration;
+            byte[] pattern = search.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            Toast.makeText(this, "Searching...", Toast.LENGTH_SHORT).show();
+            fileLoadExecutor.execute(() -> {
+                long hit = mapped.find(pattern, from);
+                if (hit < 0 && from > 0) {
+                    hit = mapped.find(pattern, 0);
+                }
+                long found = hit;
+                int line = found >= 0 ? mapped.lineOfOffset(found) : -1;
+                int column = found >= 0 ? mapped.decode(mapped.lineOffset(line), found).length() : 0;
+                runOnUiThread(() -> {
+                    if (generation != openGeneration) return;
+                    if (found < 0) {
+                        Toast.makeText(this, "Not found", Toast.LENGTH_SHORT).show();
+                    } else {
+                        showViewerPosition(line, column, search.length());
+                        Toast.makeText(this, "Line " + (line + 1), Toast.LENGTH_SHORT).show();
+                    }
+                });
+            });
+        });
+        builder.setNegativeButton("Cancel", null);
+        showThemedDialog(builder);
+    }
+    
+    private int offsetOfWindowLine(int windowLine) {
+        CharSequence text = editor.getText();
+        int pos = 0;
+        for (int i = 0; i < windowLine && pos < text.length(); i++) {
+            while (pos < text.length() && text.charAt(pos) != '\n') pos++;
+            if (pos < text.length()) pos++;
+        }
+        return pos;
+    }
+    
+    private int countNewlines(CharSequence text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+    
+    // A window of the document as shown in the editor, with the load buttons around it
+    private static final class ChunkWindow {
+        PieceTable document; // Document the window was read from
+        int version; // editVersion when it was read
+        int start; // Document range shown
+        int end;
+        int line; // First line, for line-based chunking
+        int displayOffset; // Length of the "Load Previous" button text
+        int footerLength; // Length of the "Load Next" button text
+        CharSequence text;
+        LineIndex lines; // Set with applied when the window was prefetched
+        java.util.List<int[]> applied; // Tokens already applied as spans to text, per editor line
+    }
+    
+    private ChunkWindow readChunkWindow(int position) {
+        ChunkWindow window = new ChunkWindow();
+        window.document = document;
+        window.version = editVersion;
+        int currentPart, totalParts;
+        
+        if (useLineBasedChunking) {
+            // Line-based chunking - position is a line number
+            int totalLines = lineIndex.lineCount();
+            window.line = position;
+            int endLine = Math.min(position + WINDOW_CHUNKS * CHUNK_LINES, totalLines);
+            
+            currentPart = (position / CHUNK_LINES) + 1;
+            totalParts = (totalLines + CHUNK_LINES - 1) / CHUNK_LINES;
+            
+            // Window spans whole lines, without the newline that ends its last line
+            window.start = lineIndex.lineStart(position);
+            window.end = endLine < totalLines ? lineIndex.lineStart(endLine) - 1 : document.length();
         } else {
             // Character-based chunking - position is a character offset
-            currentChunkStart = (position / CHUNK_SIZE) * CHUNK_SIZE;
-            int end = Math.min(currentChunkStart + CHUNK_SIZE, fullFileContent.length());
-            
-            currentPart = (currentChunkStart / CHUNK_SIZE) + 1;
-            totalParts = (fullFileContent.length() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            window.start = (position / CHUNK_SIZE) * CHUNK_SIZE;
+            window.end = Math.min(window.start + WINDOW_CHUNKS * CHUNK_SIZE, document.length());
             
-            chunk = fullFileContent.substring(currentChunkStart, end);
+            currentPart = (window.start / CHUNK_SIZE) + 1;
+            totalParts = (document.length() + CHUNK_SIZE - 1) / CHUNK_SIZE;
         }
+        String chunk = document.getText(window.start, window.end);
         
         StringBuilder displayText = new StringBuilder();
         
@@ -1804,361 +2294,181 @@ public class IDEActivity extends AppCompatActivity {
         if (currentPart > 1) {
             displayText.append("▲▲▲ TAP TO LOAD PREVIOUS (").append(currentPart - 1).append("/").append(totalParts).append(") ▲▲▲\n\n");
         }
+        window.displayOffset = displayText.length();
         
         // Add chunk content
         displayText.append(chunk);
         
-        // Add "Load Next" button at bottom if not last chunk
-        if (currentPart < totalParts) {
+        // Add "Load Next" button at bottom unless the window reaches the end
+        if (window.end < document.length()) {
             displayText.append("\n\n▼▼▼ TAP TO LOAD NEXT (").append(currentPart + 1).append("/").append(totalParts).append(") ▼▼▼");
         }
-        
-        editor.setText(displayText.toString());
+        window.footerLength = displayText.length() - window.displayOffset - chunk.length();
+        window.text = displayText.toString();
+        return window;
+    }
+    
+    private void loadChunkWithButtons(int position) {
+        if (document == null || document.isEmpty()) return;
+        
+        // A prefetched neighbour comes with its spans, unless the document changed since
+        ChunkWindow window = null;
+        int start = useLineBasedChunking ? position : (position / CHUNK_SIZE) * CHUNK_SIZE;
+        for (ChunkWindow prefetched : prefetchedWindows) {
+            if (prefetched != null && prefetched.document == document && prefetched.version == editVersion
+                    && (useLineBasedChunking ? prefetched.line : prefetched.start) == start) {
+                window = prefetched;
+            }
+        }
+        if (window == null) window = readChunkWindow(position);
+        
+        currentChunkStart = window.start;
+        currentChunkEnd = window.end;
+        currentChunkLine = window.line;
+        chunkDisplayOffset = window.displayOffset;
+        chunkLines = null;
+        setEditorText(window.text);
+        chunkLines = window.lines != null ? window.lines : new LineIndex(window.text);
+        chunkFooterLength = window.footerLength;
+        // The buttons can be neither edited nor entered with the caret
+        editor.protect(0, chunkDisplayOffset);
+        editor.protect(window.text.length() - chunkFooterLength, window.text.length());
+        chunkDirty = false;
+        chunkFirstEditorLine = chunkLines.lineOfOffset(chunkDisplayOffset);
+        chunkFirstLine = lineIndex.lineOfOffset(currentChunkStart);
+        chunkFirstColumn = currentChunkStart - lineIndex.lineStart(chunkFirstLine);
+        // The document keeps being highlighted as a whole; only the spans start over
+        appliedTokens = window.applied != null
+            ? new java.util.ArrayList<>(window.applied)
+            : new java.util.ArrayList<>(java.util.Collections.nCopies(chunkLines.lineCount(), (int[]) null));
+        applyVisibleHighlights();
         editor.setEnabled(true);
         editor.clearFocus();
         
-        // Update line numbers for current chunk
-        updateLineNumbersForChunk(chunk, currentChunkStart);
-        
-        // Setup click listener for load buttons
-        setupLoadButtonClicks();
+        // The chunk is numbered as in the document; the button lines get no numbers
+        lineNumbers.setNumbering(chunkLines, chunkFirstEditorLine, chunkFooterLength > 0 ? 2 : 0, chunkFirstLine + 1);
+        prefetchChunkWindows();
     }
     
-    private void updateLineNumbersForChunk(String chunk, int startPos) {
-        executor.execute(() -> {
-            // Count lines before this chunk in the full file
-            String beforeChunk = startPos > 0 ? fullFileContent.substring(0, startPos) : "";
-            int startLineNumber = beforeChunk.isEmpty() ? 1 : beforeChunk.split("\n", -1).length;
-            
-            // Count lines in current chunk
-            String[] lines = chunk.split("\n", -1);
-            int lineCount = lines.length;
-            
-            StringBuilder sb = new StringBuilder();
-            
-            // Add empty lines for "Load Previous" button if present
-            // Button format: "▲▲▲ TAP TO LOAD PREVIOUS (X/Y) ▲▲▲\n\n"
-            // Line 1: button text (no line number)
-            // Line 2: empty (no line number)
-            // Line 3: code starts (line number appears here)
-            if (startPos > 0) {
-                sb.append("\n\n");
-            }
-            
-            // Add line numbers starting from correct position
-            for (int i = 0; i < lineCount; i++) {
-                sb.append(startLineNumber + i);
-                if (i < lineCount - 1) sb.append("\n");
-            }
-            
-            // Add empty lines for "Load Next" button if present
-            // Button format: "\n\n▼▼▼ TAP TO LOAD NEXT (X/Y) ▼▼▼"
-            // Line 1: empty (no line number)
-            // Line 2: empty (no line number)
-            // Line 3: button text (no line number)
-            boolean hasNextChunk;
-            if (useLineBasedChunking) {
-                String[] allLines = fullFileContent.split("\n", -1);
-                int endLine = currentChunkLine + CHUNK_LINES;
-                hasNextChunk = endLine < allLines.length;
-            } else {
-                hasNextChunk = startPos + CHUNK_SIZE < fullFileContent.length();
-            }
-            
-            if (hasNextChunk) {
-                sb.append("\n\n");
-            }
-            
-            String lineNumberText = sb.toString();
-            
+    // Reads the windows a chunk before and after the current one and colors them on
+    // prefetchExecutor, so moving into either shows highlighted text at once
+    private void prefetchChunkWindows() {
+        prefetchGeneration++;
+        prefetchedWindows[0] = null;
+        prefetchedWindows[1] = null;
+        int step = useLineBasedChunking ? CHUNK_LINES : CHUNK_SIZE;
+        int position = useLineBasedChunking ? currentChunkLine : currentChunkStart;
+        if (position > 0) prefetchChunkWindow(0, Math.max(0, position - step));
+        if (currentChunkEnd < document.length()) prefetchChunkWindow(1, position + step);
+    }
+    
+    private void prefetchChunkWindow(int slot, int position) {
+        ChunkWindow window = readChunkWindow(position);
+        // The tokens of the window's lines are read here; the worker only reads the arrays
+        int firstLine = lineIndex.lineOfOffset(window.start);
+        int firstColumn = window.start - lineIndex.lineStart(firstLine);
+        int[][] tokens = new int[lineIndex.lineOfOffset(window.end) - firstLine + 1][];
+        for (int i = 0; highlighter != null && i < tokens.length; i++) {
+            tokens[i] = highlighter.lineTokens(firstLine + i);
+        }
+        int generation = prefetchGeneration;
+        prefetchExecutor.execute(() -> {
+            // A newer chunk was loaded while this waited
+            if (generation != prefetchGeneration) return;
+            android.text.SpannableStringBuilder text = new android.text.SpannableStringBuilder(window.text);
+            LineIndex lines = new LineIndex(text);
+            java.util.List<int[]> applied = new java.util.ArrayList<>(java.util.Collections.nCopies(lines.lineCount(), (int[]) null));
+            int firstEditorLine = lines.lineOfOffset(window.displayOffset);
+            int codeEnd = text.length() - window.footerLength;
+            for (int i = 0; i < tokens.length && firstEditorLine + i < lines.lineCount(); i++) {
+                if (tokens[i] == null) continue;
+                int line = firstEditorLine + i;
+                int base = lines.lineStart(line) - (i == 0 ? firstColumn : 0);
+                applyLineSpans(text, base, lines.lineStart(line), lines.lineEnd(line), tokens[i], 0, tokens[i].length / 3,
+                    window.displayOffset, codeEnd);
+                applied.set(line, tokens[i]);
+            }
+            window.text = text;
+            window.lines = lines;
+            window.applied = applied;
             runOnUiThread(() -> {
-                lineNumbers.setText(lineNumberText);
-                lineNumbers.post(() -> {
-                    lineNumbers.measure(0, 0);
-                    int measuredWidth = lineNumbers.getMeasuredWidth();
-                    int perfectWidth = measuredWidth + (int)(4 * getResources().getDisplayMetrics().density);
-                    lineNumberScroll.getLayoutParams().width = perfectWidth;
-                    lineNumberScroll.requestLayout();
-                });
+                if (generation == prefetchGeneration && window.document == document && window.version == editVersion) {
+                    prefetchedWindows[slot] = window;
+                }
             });
         });
     }
     
-    private void setupLoadButtonClicks() {
-        // Handle button clicks and block protected lines
-        editor.setOnTouchListener((v, event) -> {
-            if (!isLargeFile) return false;
-            
-            int offset = editor.getOffsetForPosition(event.getX(), event.getY());
-            String text = editor.getText().toString();
-            
-            // Find all boundaries
-            int prevButtonStart = 0;
-            int prevButtonEnd = 0;
-            int protectedLine1Start = -1, protectedLine1End = -1; // Line 2 after prev button (empty line)
-            int nextButtonStart = text.length();
-            int protectedLine2Start = -1, protectedLine2End = -1; // ONLY the line immediately before next button
-            
-            if (text.startsWith("▲▲▲")) {
-                prevButtonStart = 0;
-                int firstNewline = text.indexOf("\n");
-                if (firstNewline > 0) {
-                    prevButtonEnd = firstNewline + 1; // Include the newline
-                    protectedLine1Start = firstNewline + 1; // Start of line 2 (empty line)
-                    int secondNewline = text.indexOf("\n", firstNewline + 1);
-                    if (secondNewline > 0) {
-                        protectedLine1End = secondNewline + 1; // End of line 2 including newline
-                    }
-                }
-            }
-            
-            if (text.endsWith("▼▼▼")) {
-                int buttonStart = text.lastIndexOf("\n\n▼▼▼");
-                if (buttonStart > 0) {
-                    // Only the SECOND empty line (immediately before ▼▼▼) is protected
-                    protectedLine2Start = buttonStart + 1; // Start of second \n
-                    protectedLine2End = buttonStart + 2; // End of second \n
-                    nextButtonStart = buttonStart + 2;
-                }
-            }
-            
-            // BLOCK ALL EVENTS on protected lines - check FIRST before button handling
-            if (protectedLine1Start >= 0 && offset >= protectedLine1Start && offset < protectedLine1End) {
-                return true; // Consume ALL events on this line
-            }
-            if (protectedLine2Start >= 0 && offset >= protectedLine2Start && offset < protectedLine2End) {
-                return true; // Consume ALL events on this line
-            }
-            
-            // Handle button clicks on ACTION_DOWN
-            if (event.getAction() == android.view.MotionEvent.ACTION_DOWN) {
-                // Check if clicked on Previous button (entire ▲▲▲ line)
-                if (offset >= prevButtonStart && offset < prevButtonEnd && prevButtonEnd > 0) {
-                    updateFullContentFromChunk();
-                    if (useLineBasedChunking) {
-                        int prevLine = Math.max(0, currentChunkLine - CHUNK_LINES);
-                        loadChunkWithButtons(prevLine);
-                    } else {
-                        int prevChunk = Math.max(0, currentChunkStart - CHUNK_SIZE);
-                        loadChunkWithButtons(prevChunk);
-                    }
-                    return true; // Consume event
-                }
-                
-                // Check if clicked on Next button
-                if (offset >= nextButtonStart && offset <= text.length() && nextButtonStart < text.length()) {
-                    updateFullContentFromChunk();
-                    if (useLineBasedChunking) {
-                        int nextLine = currentChunkLine + CHUNK_LINES;
-                        loadChunkWithButtons(nextLine);
-                    } else {
-                        int nextChunk = currentChunkStart + CHUNK_SIZE;
-                        loadChunkWithButtons(nextChunk);
-                    }
-                    return true; // Consume event
-                }
-            }
-            
-            return false;
-        });
-        
-        // Monitor cursor position and force it away from protected lines INSTANTLY
-        editor.setOnClickListener(v -> {
-            if (!isLargeFile) return;
-            
-            // Check cursor position immediately after click
-            android.os.Handler handler = new android.os.Handler();
-            handler.post(() -> {
-                String text = editor.getText().toString();
-                int cursor = editor.getSelectionStart();
-                
-                int protectedLine1Start = -1, protectedLine1End = -1;
-                int protectedLine2Start = -1, protectedLine2End = -1;
-                
-                if (text.startsWith("▲▲▲")) {
-                    int firstNewline = text.indexOf("\n");
-                    if (firstNewline > 0) {
-                        protectedLine1Start = firstNewline + 1;
-                        int secondNewline = text.indexOf("\n", firstNewline + 1);
-                        if (secondNewline > 0) {
-                            protectedLine1End = secondNewline + 1;
-                        }
-                    }
-                }
-                
-                if (text.endsWith("▼▼▼")) {
-                    int buttonStart = text.lastIndexOf("\n\n▼▼▼");
-                    if (buttonStart > 0) {
-                        protectedLine2Start = buttonStart + 1;
-                        protectedLine2End = buttonStart + 2;
-                    }
-                }
-                
-                // Move cursor instantly
-                if (protectedLine1Start >= 0 && cursor >= protectedLine1Start && cursor < protectedLine1End) {
-                    editor.setSelection(Math.min(protectedLine1End, text.length()));
-                } else if (protectedLine2Start >= 0 && cursor >= protectedLine2Start && cursor < protectedLine2End) {
-                    editor.setSelection(Math.max(0, protectedLine2Start - 1));
-                }
-            });
+    // Moves the window by a chunk when the user scrolls close to either end of it
+    private void onChunkScrolled() {
+        if (document == null || chunkShifting || editor.getLayout() == null) return;
+        int scrollY = editorScroll.getScrollY();
+        int margin = editorScroll.getHeight();
+        if (scrollY + 2 * margin >= editor.getHeight() && currentChunkEnd < document.length()) {
+            shiftChunkWindow(1);
+        } else if (scrollY < margin && currentChunkStart > 0) {
+            shiftChunkWindow(-1);
+        }
+    }
+    
+    // Loads the window a chunk further on, keeping the text at the top of the screen and the
+    // caret in place; windows overlap by a chunk, so both are still inside the new one
+    private void shiftChunkWindow(int direction) {
+        android.text.Layout layout = editor.getLayout();
+        int y = Math.max(0, editorScroll.getScrollY() - editor.getTotalPaddingTop());
+        int topLayoutLine = layout.getLineForVertical(y);
+        int pixelsIntoLine = y - layout.getLineTop(topLayoutLine);
+        updateFullContentFromChunk();
+        // Document offsets survive the reload, editor offsets do not
+        int topOffset = currentChunkStart + Math.max(0, layout.getLineStart(topLayoutLine) - chunkDisplayOffset);
+        boolean focused = editor.hasFocus();
+        int selectionStart = currentChunkStart + editor.getSelectionStart() - chunkDisplayOffset;
+        int selectionEnd = currentChunkStart + editor.getSelectionEnd() - chunkDisplayOffset;
+        
+        chunkShifting = true;
+        int step = useLineBasedChunking ? CHUNK_LINES : CHUNK_SIZE;
+        int position = useLineBasedChunking ? currentChunkLine : currentChunkStart;
+        loadChunkWithButtons(Math.max(0, position + direction * step));
+        if (focused && selectionStart >= currentChunkStart && selectionEnd <= currentChunkEnd) {
+            editor.requestFocus();
+            editor.setSelection(chunkDisplayOffset + selectionStart - currentChunkStart,
+                chunkDisplayOffset + selectionEnd - currentChunkStart);
+        }
+        int offset = chunkDisplayOffset + Math.max(0, topOffset - currentChunkStart);
+        editorScroll.post(() -> {
+            android.text.Layout newLayout = editor.getLayout();
+            if (newLayout != null) {
+                int top = newLayout.getLineTop(newLayout.getLineForOffset(offset));
+                editorScroll.scrollTo(0, top + pixelsIntoLine + editor.getTotalPaddingTop());
+            }
+            chunkShifting = false;
         });
-        
-        // Periodic check - runs every 50ms to catch any cursor movement
-        final android.os.Handler periodicHandler = new android.os.Handler();
-        final Runnable periodicCheck = new Runnable() {
-            @Override
-            public void run() {
-                if (!isLargeFile) {
-                    periodicHandler.postDelayed(this, 50);
-                    return;
-                }
-                
-                String text = editor.getText().toString();
-                int cursor = editor.getSelectionStart();
-                
-                int prevButtonStart = -1, prevButtonEnd = -1; // ▲▲▲ line
-                int protectedLine1Start = -1, protectedLine1End = -1; // Empty line after ▲▲▲
-                int nextButtonStart = -1, nextButtonEnd = -1; // ▼▼▼ line
-                int protectedLine2Start = -1, protectedLine2End = -1; // Empty line before ▼▼▼
-                
-                if (text.startsWith("▲▲▲")) {
-                    prevButtonStart = 0;
-                    int firstNewline = text.indexOf("\n");
-                    if (firstNewline > 0) {
-                        prevButtonEnd = firstNewline + 1;
-                        protectedLine1Start = firstNewline + 1;
-                        int secondNewline = text.indexOf("\n", firstNewline + 1);
-                        if (secondNewline > 0) {
-                            protectedLine1End = secondNewline + 1;
-                        }
-                    }
-                }
-                
-                if (text.endsWith("▼▼▼")) {
-                    int buttonStart = text.lastIndexOf("\n\n▼▼▼");
-                    if (buttonStart > 0) {
-                        protectedLine2Start = buttonStart + 1;
-                        protectedLine2End = buttonStart + 2;
-                        nextButtonStart = buttonStart + 2;
-                        nextButtonEnd = text.length();
-                    }
-                }
-                
-                // Move cursor instantly if in ANY protected zone
-                if (prevButtonStart >= 0 && cursor >= prevButtonStart && cursor < prevButtonEnd) {
-                    // On ▲▲▲ line - move to first code line
-                    editor.setSelection(Math.min(prevButtonEnd + 1, text.length()));
-                } else if (protectedLine1Start >= 0 && cursor >= protectedLine1Start && cursor < protectedLine1End) {
-                    // On empty line after ▲▲▲ - move to first code line
-                    editor.setSelection(Math.min(protectedLine1End, text.length()));
-                } else if (protectedLine2Start >= 0 && cursor >= protectedLine2Start && cursor < protectedLine2End) {
-                    // On empty line before ▼▼▼ - move to last code line
-                    editor.setSelection(Math.max(0, protectedLine2Start - 1));
-                } else if (nextButtonStart >= 0 && cursor >= nextButtonStart && cursor <= nextButtonEnd) {
-                    // On ▼▼▼ line - move to last code line
-                    editor.setSelection(Math.max(0, protectedLine2Start - 1));
-                }
-                
-                // Schedule next check
-                periodicHandler.postDelayed(this, 50);
-            }
-        };
-        periodicHandler.post(periodicCheck);
-        
-        // Also monitor with TextWatcher for keyboard navigation
-        editor.addTextChangedListener(new android.text.TextWatcher() {
-            private boolean isMoving = false;
-            
-            @Override
-            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-                if (!isLargeFile || isMoving) return;
-                
-                // Check cursor position BEFORE any change
-                String text = s.toString();
-                int cursor = editor.getSelectionStart();
-                
-                int protectedLine1Start = -1, protectedLine1End = -1;
-                int protectedLine2Start = -1, protectedLine2End = -1;
-                
-                if (text.startsWith("▲▲▲")) {
-                    int firstNewline = text.indexOf("\n");
-                    if (firstNewline > 0) {
-                        protectedLine1Start = firstNewline + 1;
-                        int secondNewline = text.indexOf("\n", firstNewline + 1);
-                        if (secondNewline > 0) {
-                            protectedLine1End = secondNewline + 1;
-                        }
-                    }
-                }
-                
-                if (text.endsWith("▼▼▼")) {
-                    int buttonStart = text.lastIndexOf("\n\n▼▼▼");
-                    if (buttonStart > 0) {
-                        protectedLine2Start = buttonStart + 1;
-                        protectedLine2End = buttonStart + 2;
-                    }
-                }
-                
-                // Move cursor INSTANTLY if in protected zone
-                if (protectedLine1Start >= 0 && cursor >= protectedLine1Start && cursor < protectedLine1End) {
-                    isMoving = true;
-                    editor.setSelection(Math.min(protectedLine1End, text.length()));
-                    isMoving = false;
-                } else if (protectedLine2Start >= 0 && cursor >= protectedLine2Start && cursor < protectedLine2End) {
-                    isMoving = true;
-                    editor.setSelection(Math.max(0, protectedLine2Start - 1));
-                    isMoving = false;
-                }
-            }
-            
-            @Override
-            public void onTextChanged(CharSequence s, int start, int before, int count) {}
-            
-            @Override
-            public void afterTextChanged(android.text.Editable s) {
-                if (!isLargeFile || isMoving) return;
-                
-                String text = s.toString();
-                int cursor = editor.getSelectionStart();
-                
-                int protectedLine1Start = -1, protectedLine1End = -1;
-                int protectedLine2Start = -1, protectedLine2End = -1;
-                
-                if (text.startsWith("▲▲▲")) {
-                    int firstNewline = text.indexOf("\n");
-                    if (firstNewline > 0) {
-                        protectedLine1Start = firstNewline + 1;
-                        int secondNewline = text.indexOf("\n", firstNewline + 1);
-                        if (secondNewline > 0) {
-                            protectedLine1End = secondNewline + 1;
-                        }
-                    }
-                }
-                
-                if (text.endsWith("▼▼▼")) {
-                    int buttonStart = text.lastIndexOf("\n\n▼▼▼");
-                    if (buttonStart > 0) {
-                        protectedLine2Start = buttonStart + 1;
-                        protectedLine2End = buttonStart + 2;
-                    }
-                }
-                
-                // Force cursor away from protected lines
-                if (protectedLine1Start >= 0 && cursor >= protectedLine1Start && cursor < protectedLine1End) {
-                    isMoving = true;
-                    editor.setSelection(Math.min(protectedLine1End, text.length()));
-                    isMoving = false;
-                } else if (protectedLine2Start >= 0 && cursor >= protectedLine2Start && cursor < protectedLine2End) {
-                    isMoving = true;
-                    editor.setSelection(Math.max(0, protectedLine2Start - 1));
-                    isMoving = false;
-                }
+    }
+    
+    // Taps on the "Load Previous" and "Load Next" lines page through the document. The blank
+    // line between a button and the code swallows taps, so they do not move the caret.
+    private boolean handleChunkButtonTouch(android.view.MotionEvent event) {
+        int codeEnd = editor.getText().length() - chunkFooterLength;
+        int offset = editor.getOffsetForPosition(event.getX(), event.getY());
+        boolean previous = chunkDisplayOffset > 0 && offset < chunkDisplayOffset - 1;
+        boolean next = chunkFooterLength > 0 && offset >= codeEnd + 2;
+        if (!previous && !next) {
+            return (chunkDisplayOffset > 0 && offset == chunkDisplayOffset - 1)
+                || (chunkFooterLength > 0 && offset == codeEnd + 1);
+        }
+        if (event.getAction() == android.view.MotionEvent.ACTION_DOWN) {
+            updateFullContentFromChunk();
+            if (useLineBasedChunking) {
+                loadChunkWithButtons(previous ? Math.max(0, currentChunkLine - CHUNK_LINES) : currentChunkLine + CHUNK_LINES);
+            } else {
+                loadChunkWithButtons(previous ? Math.max(0, currentChunkStart - CHUNK_SIZE) : currentChunkStart + CHUNK_SIZE);
             }
-        });
+        }
+        return true;
     }
     
     private void updateFullContentFromChunk() {
-        if (!isLargeFile || fullFileContent.isEmpty()) return;
+        if (!isLargeFile || document == null || !chunkDirty) return;
         
         String currentText = editor.getText().toString();
         
@@ -2166,25 +2476,13 @@ public class IDEActivity extends AppCompatActivity {
         currentText = currentText.replaceFirst("^▲▲▲ TAP TO LOAD PREVIOUS \\(\\d+/\\d+\\) ▲▲▲\\n\\n", "");
         currentText = currentText.replaceFirst("\\n\\n▼▼▼ TAP TO LOAD NEXT \\(\\d+/\\d+\\) ▼▼▼$", "");
         
-        // Calculate chunk end position
-        int chunkEnd;
-        if (useLineBasedChunking) {
-            // For line-based, calculate end position from line count
-            String[] allLines = fullFileContent.split("\n", -1);
-            int endLine = Math.min(currentChunkLine + CHUNK_LINES, allLines.length);
-            chunkEnd = 0;
-            for (int i = 0; i < endLine; i++) {
-                chunkEnd += allLines[i].length() + 1;
-            }
-            chunkEnd = Math.min(chunkEnd, fullFileContent.length());
-        } else {
-            // For character-based
-            chunkEnd = Math.min(currentChunkStart + CHUNK_SIZE, fullFileContent.length());
+        // Splice the chunk back into the document - only the chunk range is touched
+        if (!document.regionEquals(currentChunkStart, currentChunkEnd, currentText)) {
+            lineIndex.update(currentChunkStart, currentChunkEnd - currentChunkStart, currentText);
+            document.replace(currentChunkStart, currentChunkEnd, currentText);
+            currentChunkEnd = currentChunkStart + currentText.length();
         }
-        
-        String before = currentChunkStart > 0 ? fullFileContent.substring(0, currentChunkStart) : "";
-        String after = chunkEnd < fullFileContent.length() ? fullFileContent.substring(chunkEnd) : "";
-        fullFileContent = before + currentText + after;
+        chunkDirty = false;
     }
     
     private void saveFileState(File file) {
@@ -2269,8 +2567,14 @@ public class IDEActivity extends AppCompatActivity {
             if (!openTabs.isEmpty()) {
                 openFile(openTabs.get(openTabs.size() - 1));
             } else {
+                closeViewer();
+                cancelProgressiveOpen();
+                showContinuousView(false);
+                openGeneration++;
                 currentFile = null;
-                editor.setText("No files open.\n\nTap the menu icon (☰) to open a file.");
+                stopHighlighting();
+                switchHistory(null);
+                setEditorText("No files open.\n\nTap the menu icon (☰) to open a file.");
                 editor.setEnabled(false);
                 if (getSupportActionBar() != null) {
                     getSupportActionBar().setSubtitle("");
@@ -2280,32 +2584,75 @@ public class IDEActivity extends AppCompatActivity {
         updateTabBar();
     }
 
-    private void updateLineNumbers(TextView lineNumbers, String text) {
-        int lines = text.isEmpty() ? 1 : text.split("\n", -1).length;
-        StringBuilder sb = new StringBuilder();
-        for (int i = 1; i <= lines; i++) {
-            sb.append(i);
-            if (i < lines) sb.append("\n");
-        }
-        lineNumbers.setText(sb.toString());
-        
-        // Measure actual text width for PERFECT fit
-        lineNumbers.post(() -> {
-            lineNumbers.measure(0, 0);
-            int measuredWidth = lineNumbers.getMeasuredWidth();
-            int perfectWidth = measuredWidth + (int)(4 * getResources().getDisplayMetrics().density);
-            lineNumberScroll.getLayoutParams().width = perfectWidth;
-            lineNumberScroll.requestLayout();
-        });
-        
-        // Match height with editor content
-        lineNumbers.post(() -> {
-            int editorHeight = editor.getHeight();
-            int lineNumberHeight = lineNumbers.getHeight();
-            if (editorHeight > lineNumberHeight) {
-                lineNumbers.setMinHeight(editorHeight);
+    // Undo history for a file lives in a journal under app-private storage, so it survives
+    // switching tabs and restarts; files without one fall back to an in-memory history
+    private void switchHistory(File file) {
+        // Saves still in flight record themselves in the old history before it is closed
+        fileSaver.whenIdle(history::close);
+        history = new EditHistory(UNDO_DELAY, UNDO_BUDGET_BYTES);
+        savedVersion = editVersion;
+        autoSaveDebounce.reset();
+        if (file == null) return;
+        // The journal is opened and read in the background; see recoverWhenReady
+        File journal = new File(getFilesDir(), "undo/" + projectName + "/"
+            + Integer.toHexString(file.getAbsolutePath().hashCode()) + "-" + file.getName() + ".journal");
+        history = new EditHistory(UNDO_DELAY, UndoJournal.open(journal, file));
+    }
+
+    // Once the journal of the file just shown has been read, rolls the text forward to where a
+    // crashed session left it. Typing before then supersedes the journaled edits.
+    private void recoverWhenReady() {
+        EditHistory opened = history;
+        int generation = openGeneration;
+        opened.whenReady(() -> runOnUiThread(() -> {
+            if (opened != history || generation != openGeneration || isReadOnly() || !opened.needsRecovery()) return;
+            if (isLargeFile) {
+                updateFullContentFromChunk();
+                PieceTable recovered = recoverUnsavedEdits(document);
+                if (recovered == null) return;
+                document = recovered;
+                lineIndex = new LineIndex(recovered);
+                showLargeDocument();
+            } else {
+                PieceTable recovered = recoverUnsavedEdits(new PieceTable(editor.getText().toString()));
+                if (recovered == null) return;
+                String content = recovered.toString();
+                lineIndex = null;
+                setEditorText(content);
+                lineIndex = new LineIndex(content);
+                lineNumbers.setNumbering(lineIndex, 0, 0, 1);
+                startHighlighting();
             }
-        });
+        }));
+    }
+
+    // Replays edits a crashed session journaled but never wrote to the file. The replay runs on
+    // a copy, so a journal that turns out not to fit leaves the loaded text as it was. Returns
+    // the recovered text, or null to keep the loaded one.
+    private PieceTable recoverUnsavedEdits(PieceTable loaded) {
+        PieceTable recovered = loaded.copy();
+        try {
+            int count = history.recover((offset, length, text) -> recovered.replace(offset, offset + length, text));
+            if (count == 0) return null;
+            editVersion++;
+            Toast.makeText(this, "Recovered " + count + " unsaved edits", Toast.LENGTH_SHORT).show();
+            return recovered;
+        } catch (IndexOutOfBoundsException e) {
+            // The journal does not fit this file after all
+            history.clear();
+            return null;
+        }
+    }
+
+    // Replaces the editor content without recording it in the edit history
+    private void setEditorText(CharSequence text) {
+        historySuppressed = true;
+        // Nothing records the replaced text, so it need not be copied
+        editPipeline.setCopyRemoved(false);
+        lineNumbers.setNumbering(null, 0, 0, 1);
+        editor.setText(text);
+        editPipeline.setCopyRemoved(true);
+        historySuppressed = false;
     }
 
     private void addCompactButton(LinearLayout toolbar, String icon, View.OnClickListener listener) {
@@ -2326,290 +2673,315 @@ public class IDEActivity extends AppCompatActivity {
     }
 
     
-    private void applySyntaxHighlightingForLargeFile() {
-        if (currentFile == null) return;
-        
-        String text = editor.getText().toString();
-        
-        // Find button boundaries
-        int codeStart = 0;
-        int codeEnd = text.length();
-        
-        if (text.startsWith("▲▲▲")) {
-            int endOfPrevButton = text.indexOf("\n\n");
-            if (endOfPrevButton > 0) {
-                codeStart = endOfPrevButton + 2;
-            }
+    // Small files are indexed directly; a chunk has its own index of the editor text
+    private LineIndex editorLines() {
+        return isLargeFile ? chunkLines : lineIndex;
+    }
+
+    // Keeps the line index, the highlighter and the applied spans in step with an edit
+    private void indexEdit(android.text.Editable s, int start, int before, int count, String removed) {
+        if (!historySuppressed && !isReadOnly() && currentFile != null) {
+            editVersion++;
+        }
+        // Small files index the editor text itself, chunks have an index of their own
+        LineIndex lines = editorLines();
+        if (lines == null) return;
+        int line = lines.lineOfOffset(start);
+        int removedLines = lines.lineOfOffset(start + before) - line;
+        lines.update(start, before, s, start, start + count);
+        if (highlighter == null) return;
+        CharSequence inserted = s.subSequence(start, start + count);
+        if (!isLargeFile) {
+            highlighter.edit(start, before, inserted, line, removedLines);
+        } else if (start >= chunkDisplayOffset) {
+            // A chunk's highlighter covers the whole document
+            highlighter.edit(currentChunkStart + start - chunkDisplayOffset, before, inserted,
+                chunkFirstLine + line - chunkFirstEditorLine, removedLines);
+        }
+        // Spans on the edited lines no longer match any token list
+        int insertedLines = lines.lineOfOffset(start + count) - line;
+        appliedTokens.subList(line, Math.min(appliedTokens.size(), line + removedLines + 1)).clear();
+        appliedTokens.addAll(Math.min(line, appliedTokens.size()), java.util.Collections.nCopies(insertedLines + 1, (int[]) null));
+    }
+
+    // Only user edits are recorded; the pipeline copied just the removed range
+    private void recordEdit(android.text.Editable s, int start, int before, int count, String removed) {
+        if (removed == null || isUndoRedo || applyingTransaction || historySuppressed || isReadOnly() || continuousMode || currentFile == null) return;
+        // Chunk edits are recorded in document coordinates
+        if (isLargeFile && start < chunkDisplayOffset) return;
+        int offset = isLargeFile ? currentChunkStart + start - chunkDisplayOffset : start;
+        recordHistory(offset, removed, s.subSequence(start, start + count));
+    }
+
+    // A bulk insert is an undo step of its own; merged with typing around it, every keystroke
+    // would copy the whole insert again
+    private void recordHistory(int offset, CharSequence removed, CharSequence inserted) {
+        boolean bulk = inserted.length() >= BULK_INSERT_CHARS;
+        if (bulk) history.endBurst();
+        history.record(offset, removed, inserted);
+        if (bulk) history.endBurst();
+    }
+
+    private void scheduleAfterEdit(android.text.Editable s, int start, int before, int count, String removed) {
+        if (isReadOnly() || continuousMode) return;
+        if (isLargeFile) {
+            // The chunk is written back to the document lazily
+            chunkDirty = true;
         }
-        
-        if (text.endsWith("▼▼▼")) {
-            int startOfNextButton = text.lastIndexOf("\n\n▼▼▼");
-            if (startOfNextButton > 0) {
-                codeEnd = startOfNextButton;
+        lineNumbers.linesChanged();
+        scheduleAutoSave();
+    }
+
+    // Auto-indent and auto-close of brackets, quotes and tags. Looks only at the characters
+    // around the cursor and at the lines it is on, never at the whole text.
+    private void autoComplete(android.text.Editable s, int start, int before, int count, String removed) {
+        if (autoCompleting || isReadOnly() || continuousMode || isLargeFile) return;
+        // Undo/redo and transactions replay exact edits - no auto-indent or auto-close on top
+        if (isUndoRedo || applyingTransaction || historySuppressed || count <= before) return;
+        int selection = editor.getSelectionStart();
+        if (selection <= 0 || selection > s.length()) return;
+        autoCompleting = true;
+        try {
+            char typed = s.charAt(selection - 1);
+            if (typed == '\n') {
+                autoIndent(s, selection);
+            } else {
+                autoClose(s, selection, typed);
             }
-        }
-        
-        // Extract code content
-        String codeContent = text.substring(codeStart, codeEnd);
-        
-        // Apply syntax highlighting to code content
-        android.text.Spannable spannable = new android.text.SpannableStringBuilder(text);
-        applySyntaxHighlightingToSpannable(currentFile.getName(), codeContent, spannable, codeStart);
-        
-        // Set the highlighted text
-        int cursorPos = editor.getSelectionStart();
-        editor.setText(spannable);
-        
-        // Restore cursor position
-        if (cursorPos >= 0 && cursorPos <= spannable.length()) {
-            editor.setSelection(Math.min(cursorPos, spannable.length()));
+        } finally {
+            autoCompleting = false;
         }
     }
-    
-    private void applySyntaxHighlightingToSpannable(String fileName, String content, android.text.Spannable spannable, int offset) {
-        if (content == null || content.isEmpty()) return;
-        
-        SharedPreferences themePrefs = getSharedPreferences("GitCodeTheme", MODE_PRIVATE);
-        boolean isDark = themePrefs.getBoolean("darkMode", true);
-        
-        String ext = "";
-        int i = fileName.lastIndexOf('.');
-        if (i > 0) {
-            ext = fileName.substring(i + 1).toLowerCase();
+
+    private void autoIndent(android.text.Editable s, int selection) {
+        // The line the Enter was typed on ends just before the cursor
+        int lineStart = selection - 1;
+        while (lineStart > 0 && s.charAt(lineStart - 1) != '\n') lineStart--;
+        int indent = 0;
+        while (lineStart + indent < selection - 1 && (s.charAt(lineStart + indent) == ' ' || s.charAt(lineStart + indent) == '\t')) {
+            indent++;
+        }
+        char prevChar = selection > 1 ? s.charAt(selection - 2) : 0;
+        char nextChar = selection < s.length() ? s.charAt(selection) : 0;
+
+        // Smart bracket handling - Enter between brackets
+        if ((prevChar == '{' && nextChar == '}') ||
+            (prevChar == '[' && nextChar == ']') ||
+            (prevChar == '(' && nextChar == ')')) {
+            String indentStr = new String(new char[indent + 4]).replace('\0', ' ');
+            String closeIndent = new String(new char[indent]).replace('\0', ' ');
+            s.insert(selection, indentStr + "\n" + closeIndent);
+            editor.setSelection(selection + indentStr.length());
+            return;
         }
-        
-        // Only apply syntax highlighting for code files
-        String[] codeExtensions = {"java", "js", "jsx", "ts", "tsx", "py", "html", "xml", "css", "scss", "sass", 
-                                    "c", "cpp", "h", "hpp", "go", "rs", "php", "rb", "swift", "kt", "json", "yaml", "yml"};
-        boolean isCodeFile = false;
-        for (String codeExt : codeExtensions) {
-            if (ext.equals(codeExt)) {
-                isCodeFile = true;
-                break;
-            }
+
+        // Extra indent after opening brace
+        int last = selection - 2;
+        while (last >= lineStart && Character.isWhitespace(s.charAt(last))) last--;
+        if (last >= lineStart && (s.charAt(last) == '{' || s.charAt(last) == ':')) {
+            indent += 4;
         }
-        
-        if (!isCodeFile) return;
-        
-        try {
-            String[] keywords = getKeywordsForExtension(ext);
-            int keywordColor = isDark ? 0xFFFF79C6 : 0xFF0000FF;
-            int stringColor = isDark ? 0xFF50FA7B : 0xFF008000;
-            int commentColor = isDark ? 0xFF6272A4 : 0xFF808080;
-            int numberColor = isDark ? 0xFFBD93F9 : 0xFFFF6600;
-            int functionColor = isDark ? 0xFF8BE9FD : 0xFF0080FF;
-            
-            // Highlight keywords
-            for (String keyword : keywords) {
-                int start = 0;
-                while ((start = content.indexOf(keyword, start)) != -1) {
-                    if ((start == 0 || !Character.isLetterOrDigit(content.charAt(start - 1))) &&
-                        (start + keyword.length() >= content.length() || !Character.isLetterOrDigit(content.charAt(start + keyword.length())))) {
-                        spannable.setSpan(new android.text.style.ForegroundColorSpan(keywordColor),
-                            offset + start, offset + start + keyword.length(),
-                            android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                    start += keyword.length();
-                }
-            }
-            
-            highlightPatternWithOffset(spannable, content, "\\b\\d+\\.?\\d*\\b", numberColor, offset);
-            highlightPatternWithOffset(spannable, content, "\\b\\w+(?=\\()", functionColor, offset);
-            highlightPatternWithOffset(spannable, content, "\"[^\"]*\"", stringColor, offset);
-            highlightPatternWithOffset(spannable, content, "'[^']*'", stringColor, offset);
-            highlightPatternWithOffset(spannable, content, "`[^`]*`", stringColor, offset);
-            highlightPatternWithOffset(spannable, content, "//.*", commentColor, offset);
-            highlightPatternWithOffset(spannable, content, "#.*", commentColor, offset);
-            highlightPatternWithOffset(spannable, content, "/\\*.*?\\*/", commentColor, offset);
-        } catch (Exception e) {
-            // Skip if highlighting fails
+        if (indent > 0) {
+            s.insert(selection, new String(new char[indent]).replace('\0', ' '));
+            editor.setSelection(selection + indent);
         }
     }
-    
-    private void highlightPatternWithOffset(android.text.Spannable spannable, String content, String regex, int color, int offset) {
-        try {
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(regex);
-            java.util.regex.Matcher matcher = pattern.matcher(content);
-            while (matcher.find()) {
-                spannable.setSpan(new android.text.style.ForegroundColorSpan(color),
-                    offset + matcher.start(), offset + matcher.end(),
-                    android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+    private void autoClose(android.text.Editable s, int selection, char typed) {
+        boolean markup = currentFile != null && (currentFile.getName().endsWith(".html") ||
+            currentFile.getName().endsWith(".xml") ||
+            currentFile.getName().endsWith(".jsx") ||
+            currentFile.getName().endsWith(".tsx"));
+        char closing = 0;
+        switch (typed) {
+            case '(': closing = ')'; break;
+            case '[': closing = ']'; break;
+            case '{': closing = '}'; break;
+            case '"': closing = '"'; break;
+            case '\'': closing = '\''; break;
+            case '`': closing = '`'; break;
+            case '<':
+                // Auto-close < for HTML/XML
+                if (markup) closing = '>';
+                break;
+        }
+        if (closing != 0) {
+            if (selection >= s.length() || !Character.isLetterOrDigit(s.charAt(selection))) {
+                s.insert(selection, String.valueOf(closing));
+                editor.setSelection(selection);
             }
-        } catch (Exception e) {
-            // Skip if pattern fails
+            return;
+        }
+
+        // Auto-close tags for HTML/XML; the opening tag is looked for on the current line only
+        if (typed != '>' || !markup) return;
+        int tagStart = selection - 2;
+        while (tagStart >= 0 && s.charAt(tagStart) != '<' && s.charAt(tagStart) != '\n') tagStart--;
+        if (tagStart < 0 || s.charAt(tagStart) != '<' || tagStart >= selection - 1) return;
+        String tag = s.subSequence(tagStart + 1, selection - 1).toString().trim().split(" ")[0];
+        if (!tag.isEmpty() && !tag.startsWith("/") && !tag.endsWith("/") &&
+            !tag.matches("(br|hr|img|input|meta|link|area|base|col|embed|param|source|track|wbr)")) {
+            s.insert(selection, "</" + tag + ">");
+            editor.setSelection(selection);
         }
     }
     
-    private void applySyntaxHighlighting(String fileName, String content) {
-        if (content == null || content.isEmpty()) {
-            editor.setText("");
-            return;
-        }
+    // Starts lexing the open file in the background. Spans follow as tokens arrive, and only
+    // for the lines around the viewport (see applyVisibleHighlights). Large files are lexed as
+    // a whole, also when shown in chunks, so a chunk opens with correct comment and string state.
+    private void startHighlighting() {
+        stopHighlighting();
+        // The highlighter starts from the document, so it must hold the chunk's edits
+        updateFullContentFromChunk();
+        SyntaxLexer lexer = currentFile != null ? GrammarRegistry.get(this).lexerFor(currentFile.getName()) : null;
+        LineIndex lines = continuousMode ? lineIndex : editorLines();
+        if (lexer == null || lines == null) return;
         
         SharedPreferences themePrefs = getSharedPreferences("GitCodeTheme", MODE_PRIVATE);
         boolean isDark = themePrefs.getBoolean("darkMode", true);
-        
-        String ext = "";
-        int i = fileName.lastIndexOf('.');
-        if (i > 0) {
-            ext = fileName.substring(i + 1).toLowerCase();
-        }
-        
-        // Only apply syntax highlighting for code files
-        String[] codeExtensions = {"java", "js", "jsx", "ts", "tsx", "py", "html", "xml", "css", "scss", "sass", 
-                                    "c", "cpp", "h", "hpp", "go", "rs", "php", "rb", "swift", "kt", "json", "yaml", "yml"};
-        boolean isCodeFile = false;
-        for (String codeExt : codeExtensions) {
-            if (ext.equals(codeExt)) {
-                isCodeFile = true;
-                break;
-            }
-        }
-        
-        if (!isCodeFile) {
-            editor.setText(content);
-            return;
+        tokenColors[SyntaxLexer.KEYWORD] = isDark ? 0xFFFF79C6 : 0xFF0000FF;  // Pink/Blue
+        tokenColors[SyntaxLexer.STRING] = isDark ? 0xFF50FA7B : 0xFF008000;   // Green
+        tokenColors[SyntaxLexer.COMMENT] = isDark ? 0xFF6272A4 : 0xFF808080;  // Gray
+        tokenColors[SyntaxLexer.NUMBER] = isDark ? 0xFFBD93F9 : 0xFFFF6600;   // Purple/Orange
+        tokenColors[SyntaxLexer.FUNCTION] = isDark ? 0xFF8BE9FD : 0xFF0080FF; // Cyan/Blue
+        
+        if (continuousMode) {
+            highlighter = new BackgroundHighlighter(lexer, codeView::invalidate);
+            highlighter.load(document.copy());
+            codeView.setHighlighter(highlighter, tokenColors);
+        } else {
+            highlighter = new BackgroundHighlighter(lexer, () -> {
+                applyVisibleHighlights();
+                highlightMatchingBracket();
+            });
+            highlighter.load(isLargeFile ? document.copy() : editor.getText().toString());
+            appliedTokens = new java.util.ArrayList<>(java.util.Collections.nCopies(lines.lineCount(), (int[]) null));
         }
-        
-        try {
-            android.text.SpannableString spannable = new android.text.SpannableString(content);
-            
-            String[] keywords = getKeywordsForExtension(ext);
-            int keywordColor = isDark ? 0xFFFF79C6 : 0xFF0000FF;  // Pink/Blue
-            int stringColor = isDark ? 0xFF50FA7B : 0xFF008000;   // Green
-            int commentColor = isDark ? 0xFF6272A4 : 0xFF808080;  // Gray
-            int numberColor = isDark ? 0xFFBD93F9 : 0xFFFF6600;   // Purple/Orange
-            int functionColor = isDark ? 0xFF8BE9FD : 0xFF0080FF; // Cyan/Blue
-            
-            // Highlight keywords
-            for (String keyword : keywords) {
-                int start = 0;
-                while ((start = content.indexOf(keyword, start)) != -1) {
-                    if ((start == 0 || !Character.isLetterOrDigit(content.charAt(start - 1))) &&
-                        (start + keyword.length() >= content.length() || !Character.isLetterOrDigit(content.charAt(start + keyword.length())))) {
-                        spannable.setSpan(new android.text.style.ForegroundColorSpan(keywordColor),
-                            start, start + keyword.length(),
-                            android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                    start += keyword.length();
-                }
-            }
-            
-            // Highlight numbers
-            highlightPattern(spannable, content, "\\b\\d+\\.?\\d*\\b", numberColor);
-            
-            // Highlight function calls
-            highlightPattern(spannable, content, "\\b\\w+(?=\\()", functionColor);
-            
-            // Highlight strings (must be after keywords to override)
-            highlightPattern(spannable, content, "\"[^\"]*\"", stringColor);
-            highlightPattern(spannable, content, "'[^']*'", stringColor);
-            highlightPattern(spannable, content, "`[^`]*`", stringColor);
-            
-            // Highlight comments (must be last to override everything)
-            highlightPattern(spannable, content, "//.*", commentColor);
-            highlightPattern(spannable, content, "#.*", commentColor);
-            highlightPattern(spannable, content, "/\\*.*?\\*/", commentColor);
-            
-            // Save cursor position
-            int cursorPos = editor.getSelectionStart();
-            editor.setText(spannable);
-            // Restore cursor position
-            if (cursorPos >= 0 && cursorPos <= spannable.length()) {
-                editor.setSelection(cursorPos);
+    }
+    
+    private void stopHighlighting() {
+        spanApplier.cancel();
+        if (highlighter == null) return;
+        highlighter.shutdown();
+        highlighter = null;
+        codeView.setHighlighter(null, null);
+    }
+    
+    // Brings the color spans of the lines on screen, plus a screen above and below, in line
+    // with the latest tokens. Lines whose token list is unchanged are skipped, and within a
+    // line only spans that differ are removed or added, so the text is never replaced. The
+    // lines are queued visible ones first, then outwards, and applied a few per frame.
+    private void applyVisibleHighlights() {
+        LineIndex lines = editorLines();
+        android.text.Layout layout = editor.getLayout();
+        if (highlighter == null || continuousMode || lines == null || layout == null) return;
+        // Tokens lag behind the text; the batch for the latest edit is on its way
+        if (!highlighter.isCurrent()) return;
+        
+        int top = Math.max(0, editorScroll.getScrollY() - editor.getTotalPaddingTop());
+        int height = editorScroll.getHeight();
+        int maxLine = Math.min(lines.lineCount(), appliedTokens.size()) - 1;
+        int firstVisible = lines.lineOfOffset(layout.getLineStart(layout.getLineForVertical(top)));
+        int lastVisible = Math.min(maxLine, lines.lineOfOffset(layout.getLineEnd(layout.getLineForVertical(top + height))));
+        int firstLine = lines.lineOfOffset(layout.getLineStart(layout.getLineForVertical(Math.max(0, top - height))));
+        int lastLine = Math.min(maxLine, lines.lineOfOffset(layout.getLineEnd(layout.getLineForVertical(top + 2 * height))));
+        if (lastLine < firstLine) return;
+        
+        if (highlightOrder.length < lastLine - firstLine + 1) {
+            highlightOrder = new int[lastLine - firstLine + 1];
+        }
+        highlightCount = 0;
+        for (int line = firstVisible; line <= lastVisible; line++) {
+            highlightOrder[highlightCount++] = line;
+        }
+        for (int distance = 1; lastVisible + distance <= lastLine || firstVisible - distance >= firstLine; distance++) {
+            if (lastVisible + distance <= lastLine) highlightOrder[highlightCount++] = lastVisible + distance;
+            if (firstVisible - distance >= firstLine) highlightOrder[highlightCount++] = firstVisible - distance;
+        }
+        highlightNext = 0;
+        spanApplier.schedule();
+    }
+    
+    // Updates the spans of the next queued line that needs it, or of the next part of a long
+    // one; false when the queue is done
+    private boolean applyNextHighlight() {
+        LineIndex lines = editorLines();
+        if (highlighter == null || continuousMode || lines == null || !highlighter.isCurrent()) return false;
+        android.text.Editable text = editor.getText();
+        // Never color the chunk's load buttons
+        int codeStart = isLargeFile ? chunkDisplayOffset : 0;
+        int codeEnd = text.length() - (isLargeFile ? chunkFooterLength : 0);
+        while (highlightNext < highlightCount) {
+            int line = highlightOrder[highlightNext++];
+            if (line >= Math.min(lines.lineCount(), appliedTokens.size())) continue;
+            // Chunk lines map to document lines; a character-based chunk may begin mid-line
+            int documentLine = line;
+            int base = lines.lineStart(line);
+            if (isLargeFile) {
+                if (line < chunkFirstEditorLine) continue;
+                documentLine = chunkFirstLine + line - chunkFirstEditorLine;
+                if (line == chunkFirstEditorLine) base -= chunkFirstColumn;
+            }
+            int[] tokens = highlighter.lineTokens(documentLine);
+            if (tokens == null || tokens == appliedTokens.get(line)) continue;
+            // A line left part way through resumes where it stopped, unless its tokens changed
+            int from = tokens == highlightTokens ? highlightToken : 0;
+            int to = Math.min(tokens.length / 3, from + HIGHLIGHT_STEP_TOKENS);
+            applyLineSpans(text, base, lines.lineStart(line), lines.lineEnd(line), tokens, from, to, codeStart, codeEnd);
+            if (to < tokens.length / 3) {
+                highlightTokens = tokens;
+                highlightToken = to;
+                highlightNext--;
+            } else {
+                highlightTokens = null;
+                appliedTokens.set(line, tokens);
             }
-        } catch (Exception e) {
-            editor.setText(content);
+            return true;
         }
+        return false;
     }
-
-    private void highlightPattern(android.text.Spannable spannable, String content, String regex, int color) {
-        try {
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(regex);
-            java.util.regex.Matcher matcher = pattern.matcher(content);
-            while (matcher.find()) {
-                spannable.setSpan(new android.text.style.ForegroundColorSpan(color),
-                    matcher.start(), matcher.end(),
-                    android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    
+    // Token offsets are relative to base, which precedes start when the line is cut off. Only
+    // tokens [from, to) are applied, against the spans that start where those tokens lie, so a
+    // line can be done in parts. Spans and tokens are both walked in order of start.
+    private void applyLineSpans(android.text.Editable text, int base, int start, int end, int[] tokens, int from, int to,
+            int codeStart, int codeEnd) {
+        int count = tokens.length / 3;
+        int low = from == 0 ? Integer.MIN_VALUE : base + tokens[3 * from + 1];
+        int high = to == count ? Integer.MAX_VALUE : base + tokens[3 * to + 1];
+        int queryStart = Math.max(start, low);
+        android.text.style.ForegroundColorSpan[] spans = text.getSpans(queryStart, Math.max(queryStart, Math.min(end, high)),
+            android.text.style.ForegroundColorSpan.class);
+        // Starts in the high half, so sorting orders the spans by start
+        long[] order = new long[spans.length];
+        int spanCount = 0;
+        for (int k = 0; k < spans.length; k++) {
+            int spanStart = text.getSpanStart(spans[k]);
+            if (spanStart >= low && spanStart < high) order[spanCount++] = (long) spanStart << 32 | k;
+        }
+        java.util.Arrays.sort(order, 0, spanCount);
+        boolean[] present = new boolean[to - from];
+        int i = from;
+        for (int k = 0; k < spanCount; k++) {
+            android.text.style.ForegroundColorSpan span = spans[(int) order[k]];
+            int spanStart = (int) (order[k] >>> 32);
+            while (i < to && base + tokens[3 * i + 1] < spanStart) i++;
+            if (i < to && !present[i - from] && spanStart == base + tokens[3 * i + 1]
+                    && text.getSpanEnd(span) == base + tokens[3 * i + 2] && span.getForegroundColor() == tokenColors[tokens[3 * i]]) {
+                present[i - from] = true;
+            } else {
+                text.removeSpan(span);
             }
-        } catch (Exception e) {
-            // Skip if pattern fails
-        }
-    }
-
-    private String[] getKeywordsForExtension(String ext) {
-        switch (ext) {
-            case "java":
-                return new String[]{"public", "private", "protected", "class", "interface", "extends", "implements", 
-                    "void", "int", "String", "boolean", "double", "float", "long", "short", "byte", "char",
-                    "if", "else", "for", "while", "do", "switch", "case", "break", "continue", "return", 
-                    "new", "this", "super", "static", "final", "abstract", "synchronized", "volatile",
-                    "try", "catch", "throw", "throws", "finally", "import", "package", "enum", "null", "true", "false"};
-            case "js":
-            case "jsx":
-            case "ts":
-            case "tsx":
-                return new String[]{"function", "const", "let", "var", "if", "else", "for", "while", "do", "switch", 
-                    "case", "break", "continue", "return", "class", "extends", "implements", "interface",
-                    "import", "export", "default", "async", "await", "try", "catch", "throw", "finally",
-                    "new", "this", "typeof", "instanceof", "null", "undefined", "true", "false"};
-            case "py":
-                return new String[]{"def", "class", "if", "elif", "else", "for", "while", "return", "import", 
-                    "from", "as", "try", "except", "finally", "with", "lambda", "yield", "async", "await",
-                    "pass", "break", "continue", "raise", "assert", "del", "global", "nonlocal",
-                    "True", "False", "None", "and", "or", "not", "in", "is"};
-            case "html":
-            case "xml":
-                return new String[]{"div", "span", "html", "head", "body", "script", "style", "link", "meta", 
-                    "title", "h1", "h2", "h3", "h4", "h5", "h6", "p", "a", "img", "button", "input", "form",
-                    "table", "tr", "td", "th", "ul", "ol", "li", "nav", "header", "footer", "section", "article"};
-            case "css":
-            case "scss":
-            case "sass":
-                return new String[]{"color", "background", "margin", "padding", "border", "width", "height", 
-                    "display", "flex", "grid", "position", "top", "left", "right", "bottom",
-                    "font", "text", "align", "justify", "transform", "transition", "animation"};
-            case "c":
-            case "cpp":
-            case "h":
-            case "hpp":
-                return new String[]{"int", "char", "float", "double", "void", "long", "short", "unsigned", "signed",
-                    "if", "else", "for", "while", "do", "switch", "case", "break", "continue", "return",
-                    "struct", "union", "enum", "typedef", "sizeof", "const", "static", "extern",
-                    "include", "define", "ifdef", "ifndef", "endif", "NULL", "true", "false"};
-            case "go":
-                return new String[]{"func", "var", "const", "type", "struct", "interface", "package", "import",
-                    "if", "else", "for", "switch", "case", "break", "continue", "return", "defer", "go",
-                    "chan", "select", "range", "map", "make", "new", "nil", "true", "false"};
-            case "rs":
-                return new String[]{"fn", "let", "mut", "const", "static", "struct", "enum", "trait", "impl",
-                    "if", "else", "for", "while", "loop", "match", "break", "continue", "return",
-                    "pub", "use", "mod", "crate", "self", "super", "true", "false", "None", "Some"};
-            case "php":
-                return new String[]{"function", "class", "interface", "trait", "extends", "implements",
-                    "public", "private", "protected", "static", "final", "abstract",
-                    "if", "else", "elseif", "for", "foreach", "while", "do", "switch", "case", "break", "continue", "return",
-                    "try", "catch", "throw", "finally", "new", "this", "self", "parent",
-                    "true", "false", "null", "echo", "print", "var", "const"};
-            case "rb":
-                return new String[]{"def", "class", "module", "if", "elsif", "else", "unless", "case", "when",
-                    "for", "while", "until", "break", "next", "return", "yield", "begin", "rescue", "ensure", "end",
-                    "true", "false", "nil", "self", "super", "require", "include", "attr_accessor"};
-            case "swift":
-                return new String[]{"func", "var", "let", "class", "struct", "enum", "protocol", "extension",
-                    "if", "else", "guard", "switch", "case", "for", "while", "repeat", "break", "continue", "return",
-                    "import", "public", "private", "internal", "static", "final", "override",
-                    "true", "false", "nil", "self", "super", "try", "catch", "throw"};
-            case "kt":
-                return new String[]{"fun", "val", "var", "class", "interface", "object", "companion",
-                    "if", "else", "when", "for", "while", "do", "break", "continue", "return",
-                    "public", "private", "protected", "internal", "open", "abstract", "final", "override",
-                    "true", "false", "null", "this", "super", "import", "package"};
-            default:
-                return new String[]{};
+        }
+        for (i = from; i < to; i++) {
+            int tokenStart = base + tokens[3 * i + 1];
+            int tokenEnd = base + tokens[3 * i + 2];
+            if (present[i - from] || tokenStart < codeStart || tokenEnd > codeEnd) continue;
+            text.setSpan(new android.text.style.ForegroundColorSpan(tokenColors[tokens[3 * i]]),
+                tokenStart, tokenEnd, android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
     }
-
+    
     private void createNewFile() {
         AlertDialog.Builder builder = createThemedDialog();
         builder.setTitle("New File");
@@ -2634,10 +3006,16 @@ public class IDEActivity extends AppCompatActivity {
             
             try {
                 if (file.createNewFile()) {
+                    showContinuousView(false);
                     currentFile = file;
-                    editor.setText("");
-                    undoStack.clear();
-                    redoStack.clear();
+                    isLargeFile = false;
+                    document = null;
+                    lineIndex = null;
+                    setEditorText("");
+                    lineIndex = new LineIndex("");
+                    lineNumbers.setNumbering(lineIndex, 0, 0, 1);
+                    switchHistory(file);
+                    startHighlighting();
                     if (getSupportActionBar() != null) {
                         getSupportActionBar().setSubtitle(name);
                     }
@@ -2657,27 +3035,92 @@ public class IDEActivity extends AppCompatActivity {
             Toast.makeText(this, "No file open", Toast.LENGTH_SHORT).show();
             return;
         }
+        if (isReadOnly()) {
+            showReadOnlyToast();
+            return;
+        }
         
-        autoSaveFile();
-        Toast.makeText(this, "Saved ✓", Toast.LENGTH_SHORT).show();
+        saveFile(true);
     }
 
     private void autoSaveFile() {
-        if (currentFile == null) return;
-        
-        try {
-            FileOutputStream fos = new FileOutputStream(currentFile);
-            if (isLargeFile && !fullFileContent.isEmpty()) {
-                // Update full content from current chunk first
-                updateFullContentFromChunk();
-                fos.write(fullFileContent.getBytes());
-            } else {
-                fos.write(editor.getText().toString().getBytes());
+        saveFile(false);
+    }
+
+    // Snapshots the document and hands it to fileSaver, so the UI thread never waits on disk.
+    // Unchanged documents are not written at all.
+    private void saveFile(boolean report) {
+        if (currentFile == null || isReadOnly()) return;
+        if (editVersion == savedVersion) {
+            if (report) {
+                Toast.makeText(this, "Saved ✓", Toast.LENGTH_SHORT).show();
             }
-            fos.close();
-        } catch (Exception e) {
-            // Silent fail for auto-save
+            return;
+        }
+        
+        FileSaver.Content content;
+        if (isLargeFile && document != null) {
+            // Update full content from current chunk first
+            updateFullContentFromChunk();
+            content = document.copy()::writeTo;
+        } else {
+            String text = editor.getText().toString();
+            content = writer -> writer.write(text);
         }
+        File file = currentFile;
+        EditHistory saving = history;
+        int ticket = saving.beginSave();
+        int version = editVersion;
+        savedVersion = version;
+        lastCompactTime = android.os.SystemClock.uptimeMillis();
+        
+        fileSaver.save(file, content, new FileSaver.Callback() {
+            @Override
+            public void onSaved(File saved, long millis) {
+                saving.markSaved(saved, ticket);
+                if (saved.equals(currentFile)) {
+                    autoSaveDebounce.record(millis * 1_000_000);
+                }
+                if (report) {
+                    Toast.makeText(IDEActivity.this, "Saved ✓ (" + millis + " ms)", Toast.LENGTH_SHORT).show();
+                }
+            }
+            
+            @Override
+            public void onFailed(File saved, Exception e) {
+                // Let the next autosave try again
+                if (saved.equals(currentFile) && savedVersion == version) {
+                    savedVersion = -1;
+                }
+                if (report) {
+                    Toast.makeText(IDEActivity.this, "Failed to save: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    // Restarts the autosave countdown; it is longer for documents that are slow to checkpoint
+    private void scheduleAutoSave() {
+        autoSaveHandler.removeCallbacks(autoSaveRunnable);
+        autoSaveHandler.postDelayed(autoSaveRunnable, autoSaveDebounce.delay());
+    }
+
+    // Debounced autosave. Every edit is already appended to the undo journal, so syncing it is
+    // enough to survive a crash; the file itself is only rewritten once enough edits pile up.
+    private void checkpointFile() {
+        if (currentFile == null || isReadOnly()) return;
+        EditHistory syncing = history;
+        // The journal is flushed in the background; the file is rewritten from here once done
+        syncing.sync((pending, nanos) -> runOnUiThread(() -> {
+            if (syncing != history) return;
+            autoSaveDebounce.record(nanos);
+            if (currentFile == null || isReadOnly()) return;
+            if (pending >= 0 && pending < COMPACT_BYTES
+                    && android.os.SystemClock.uptimeMillis() - lastCompactTime < COMPACT_INTERVAL) {
+                return;
+            }
+            autoSaveFile();
+        }));
     }
 
     private void commitAndPushAll() {
@@ -2716,7 +3159,8 @@ public class IDEActivity extends AppCompatActivity {
 
     private void pushAllToGitHub(String username, String token, String repo, String message) {
         Toast.makeText(this, "Pushing changes...", Toast.LENGTH_SHORT).show();
-        executor.execute(() -> {
+        // Let pending saves reach disk before the files are read for upload
+        fileSaver.whenIdle(() -> executor.execute(() -> {
             GitHubAPI api = new GitHubAPI(username, token, repo);
             
             // Check if repo exists
@@ -2784,7 +3228,7 @@ public class IDEActivity extends AppCompatActivity {
                     Toast.makeText(this, "No changes to sync", Toast.LENGTH_SHORT).show();
                 }
             });
-        });
+        }));
     }
 
     private int pushModifiedFiles(GitHubAPI api, File dir, String relativePath, String message, 
@@ -2862,24 +3306,129 @@ public class IDEActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         autoSaveHandler.removeCallbacks(autoSaveRunnable);
+        openGeneration++;
+        closeViewer();
+        stopHighlighting();
+        latencyTracker.setEnabled(false);
+        fileSaver.whenIdle(history::close);
+        fileSaver.shutdown();
         executor.shutdown();
+        fileLoadExecutor.shutdown();
+        prefetchExecutor.shutdown();
     }
 
     private void highlightMatchingBracket() {
-        // Clear previous highlights
-        android.text.Spannable spannable = editor.getText();
-        android.text.style.BackgroundColorSpan[] spans = spannable.getSpans(0, spannable.length(), android.text.style.BackgroundColorSpan.class);
-        for (android.text.style.BackgroundColorSpan span : spans) {
-            if (spannable.getSpanStart(span) != -1) {
-                spannable.removeSpan(span);
+        // Only the pair highlighted last time is cleared, other background spans stay
+        android.text.Editable text = editor.getText();
+        for (int i = 0; i < bracketSpans.length; i++) {
+            if (bracketSpans[i] != null) {
+                text.removeSpan(bracketSpans[i]);
+                bracketSpans[i] = null;
             }
         }
         
         int pos = editor.getSelectionStart();
-        String text = editor.getText().toString();
-        
         if (pos < 0 || pos >= text.length()) return;
+        int matchPos = findMatchingBracket(pos);
+        if (matchPos < 0) return;
+        
+        int highlightColor = 0x4400FF00;
+        bracketSpans[0] = new android.text.style.BackgroundColorSpan(highlightColor);
+        bracketSpans[1] = new android.text.style.BackgroundColorSpan(highlightColor);
+        text.setSpan(bracketSpans[0], pos, pos + 1, android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(bracketSpans[1], matchPos, matchPos + 1, android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+    
+    // Moves the cursor to the bracket matching the one at (or just before) the cursor, or else
+    // to the opening bracket of the enclosing block
+    private void jumpToMatchingBracket() {
+        BracketIndex index = highlighter != null ? highlighter.bracketIndex() : null;
+        if (continuousMode) {
+            if (index == null) return;
+            int pos = codeView.getSelectionStart();
+            long position = documentPosition(pos);
+            int target = documentOffset(index.match(BracketIndex.lineOf(position), BracketIndex.columnOf(position)));
+            if (target < 0 && pos > 0) {
+                long before = documentPosition(pos - 1);
+                target = documentOffset(index.match(BracketIndex.lineOf(before), BracketIndex.columnOf(before)));
+            }
+            if (target < 0) {
+                target = documentOffset(index.enclosingOpen(BracketIndex.lineOf(position), BracketIndex.columnOf(position)));
+            }
+            if (target >= 0) codeView.setSelection(target);
+            return;
+        }
         
+        int pos = editor.getSelectionStart();
+        int target = pos < editor.getText().length() ? findMatchingBracket(pos) : -1;
+        if (target < 0 && pos > 0) target = findMatchingBracket(pos - 1);
+        if (target < 0 && index != null) {
+            long position = highlightPosition(pos);
+            if (position >= 0) {
+                target = editorOffset(index.enclosingOpen(BracketIndex.lineOf(position), BracketIndex.columnOf(position)));
+            }
+        }
+        if (target >= 0) editor.setSelection(target);
+    }
+    
+    // Editor offset of the bracket matching the one at pos, or -1. With a grammar the bracket
+    // index answers and brackets in strings and comments do not count; without one the text
+    // is scanned.
+    private int findMatchingBracket(int pos) {
+        if (highlighter == null) {
+            return scanForMatchingBracket(editor.getText(), pos);
+        }
+        // Null while the latest edit is being lexed; the highlight follows with the tokens
+        BracketIndex index = highlighter.bracketIndex();
+        long position = highlightPosition(pos);
+        if (index == null || position < 0) return -1;
+        return editorOffset(index.match(BracketIndex.lineOf(position), BracketIndex.columnOf(position)));
+    }
+    
+    // Line and column in the highlighted text for an editor offset, or -1 in a chunk's buttons
+    private long highlightPosition(int offset) {
+        LineIndex lines = editorLines();
+        if (lines == null || (isLargeFile && offset < chunkDisplayOffset)) return -1;
+        int line = lines.lineOfOffset(offset);
+        int column = offset - lines.lineStart(line);
+        if (isLargeFile) {
+            // Chunk lines map onto the document, see applyNextHighlight
+            if (line == chunkFirstEditorLine) column += chunkFirstColumn;
+            line = chunkFirstLine + line - chunkFirstEditorLine;
+        }
+        return BracketIndex.position(line, column);
+    }
+    
+    // Editor offset for a position in the highlighted text, or -1 if it is not in the editor
+    private int editorOffset(long position) {
+        LineIndex lines = editorLines();
+        if (position < 0 || lines == null) return -1;
+        int line = BracketIndex.lineOf(position);
+        int column = BracketIndex.columnOf(position);
+        if (isLargeFile) {
+            line = line - chunkFirstLine + chunkFirstEditorLine;
+            if (line == chunkFirstEditorLine) column -= chunkFirstColumn;
+            if (line < chunkFirstEditorLine || column < 0) return -1;
+        }
+        if (line >= lines.lineCount()) return -1;
+        int offset = lines.lineStart(line) + column;
+        if (offset > lines.lineEnd(line)) return -1;
+        if (isLargeFile && offset >= editor.getText().length() - chunkFooterLength) return -1;
+        return offset;
+    }
+    
+    // Continuous view: the document is the highlighted text
+    private long documentPosition(int offset) {
+        int line = lineIndex.lineOfOffset(offset);
+        return BracketIndex.position(line, offset - lineIndex.lineStart(line));
+    }
+    
+    private int documentOffset(long position) {
+        if (position < 0) return -1;
+        return lineIndex.lineStart(BracketIndex.lineOf(position)) + BracketIndex.columnOf(position);
+    }
+    
+    private int scanForMatchingBracket(CharSequence text, int pos) {
         char ch = text.charAt(pos);
         char match = 0;
         boolean forward = false;
@@ -2892,30 +3441,14 @@ public class IDEActivity extends AppCompatActivity {
             case ']': match = '['; break;
             case '}': match = '{'; break;
         }
+        if (match == 0) return -1;
         
-        if (match == 0) return;
-        
-        int matchPos = findMatchingBracket(text, pos, ch, match, forward);
-        if (matchPos != -1) {
-            SharedPreferences themePrefs = getSharedPreferences("GitCodeTheme", MODE_PRIVATE);
-            boolean isDark = themePrefs.getBoolean("darkMode", true);
-            int highlightColor = isDark ? 0x4400FF00 : 0x4400FF00;
-            
-            spannable.setSpan(new android.text.style.BackgroundColorSpan(highlightColor),
-                pos, pos + 1, android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            spannable.setSpan(new android.text.style.BackgroundColorSpan(highlightColor),
-                matchPos, matchPos + 1, android.text.Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-    }
-
-    private int findMatchingBracket(String text, int pos, char open, char close, boolean forward) {
         int count = 1;
         int i = forward ? pos + 1 : pos - 1;
-        
         while (forward ? i < text.length() : i >= 0) {
-            char ch = text.charAt(i);
-            if (ch == open) count++;
-            else if (ch == close) count--;
+            char c = text.charAt(i);
+            if (c == ch) count++;
+            else if (c == match) count--;
             
             if (count == 0) return i;
             i += forward ? 1 : -1;
@@ -0,0 +1,169 @@
+package com.github.actions;
+
+// Measures how long typing takes to reach the screen: from an input event to the end of the
+// frame that shows its effect. Inputs that arrive before that frame are counted as one sample,
+// timed from the oldest. Samples go into a histogram per document size, so a regression shows
+// up in the percentiles of the sizes it affects. With frame metrics (API 26+) a frame ends when
+// the render thread is done with it, before that when the view tree has been drawn. An input
+// whose frame draws nothing, like a key the editor ignores, is dropped rather than timed to
+// some later, unrelated draw. Everything runs on the UI thread.
+public class LatencyTracker implements android.view.Choreographer.FrameCallback,
+        android.view.ViewTreeObserver.OnDrawListener {
+    private static final int MAX_MILLIS = 500; // One bin per millisecond; the last collects slower frames
+    private static final long[] SIZE_LIMITS = { 10_000, 100_000, 1_000_000, Long.MAX_VALUE };
+    private static final String[] SIZE_NAMES = { "<10K", "<100K", "<1M", "1M+" };
+
+    private final int[][] histograms = new int[SIZE_LIMITS.length][MAX_MILLIS + 1];
+    private final int[] counts = new int[SIZE_LIMITS.length];
+    private final android.app.Activity activity;
+    private final Runnable onSample;
+    private Object frameMetricsListener; // Window.OnFrameMetricsAvailableListener when attached
+    private boolean enabled;
+    private long inputNanos; // Oldest input not yet on screen, 0 if none
+    private int inputBucket;
+    private long frameVsync; // Vsync of the frame handling that input, 0 until it starts
+    private boolean frameDrawn; // Whether that frame drew the view tree
+    private int lastBucket = -1;
+
+    // onSample runs after every recorded sample
+    public LatencyTracker(android.app.Activity activity, Runnable onSample) {
+        this.activity = activity;
+        this.onSample = onSample;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (this.enabled == enabled) return;
+        this.enabled = enabled;
+        inputNanos = 0;
+        android.view.Window window = activity.getWindow();
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+            if (enabled) {
+                android.view.Window.OnFrameMetricsAvailableListener listener = (w, metrics, dropped) ->
+                    onFrameEnd(metrics.getMetric(android.view.FrameMetrics.INTENDED_VSYNC_TIMESTAMP),
+                        metrics.getMetric(android.view.FrameMetrics.INTENDED_VSYNC_TIMESTAMP)
+                            + metrics.getMetric(android.view.FrameMetrics.TOTAL_DURATION));
+                frameMetricsListener = listener;
+                window.addOnFrameMetricsAvailableListener(listener, new android.os.Handler(android.os.Looper.getMainLooper()));
+            } else if (frameMetricsListener != null) {
+                window.removeOnFrameMetricsAvailableListener((android.view.Window.OnFrameMetricsAvailableListener) frameMetricsListener);
+                frameMetricsListener = null;
+            }
+        }
+        // Draws are watched on every version, to tell frames that drew nothing
+        android.view.ViewTreeObserver observer = window.getDecorView().getViewTreeObserver();
+        if (enabled) observer.addOnDrawListener(this);
+        else observer.removeOnDrawListener(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Called as an input event arrives, with the length of the document it goes to
+    public void inputEvent(long documentLength) {
+        if (!enabled || inputNanos != 0) return;
+        inputNanos = System.nanoTime();
+        inputBucket = bucketOf(documentLength);
+        frameVsync = 0;
+        frameDrawn = false;
+        android.view.Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (inputNanos == 0) return;
+        if (frameVsync == 0) {
+            // The input is handled by this frame; the next one checks that it drew
+            frameVsync = frameTimeNanos;
+            android.view.Choreographer.getInstance().postFrameCallback(this);
+        } else if (frameTimeNanos > frameVsync && !frameDrawn) {
+            // Nothing changed on screen, so there is nothing to time
+            inputNanos = 0;
+        }
+    }
+
+    @Override
+    public void onDraw() {
+        if (inputNanos == 0 || frameVsync == 0) return;
+        frameDrawn = true;
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.O) {
+            onFrameEnd(frameVsync, System.nanoTime());
+        }
+    }
+
+    private void onFrameEnd(long vsync, long endNanos) {
+        if (inputNanos == 0 || frameVsync == 0 || vsync < frameVsync) return;
+        int millis = (int) Math.min(MAX_MILLIS, (endNanos - inputNanos) / 1_000_000);
+        histograms[inputBucket][millis]++;
+        counts[inputBucket]++;
+        lastBucket = inputBucket;
+        inputNanos = 0;
+        if (onSample != null) onSample.run();
+    }
+
+    public void reset() {
+        for (int[] histogram : histograms) java.util.Arrays.fill(histogram, 0);
+        java.util.Arrays.fill(counts, 0);
+        lastBucket = -1;
+    }
+
+    public boolean hasSamples() {
+        for (int count : counts) {
+            if (count > 0) return true;
+        }
+        return false;
+    }
+
+    // One line per size that has samples, the one typed in last marked with *
+    public String summary() {
+        StringBuilder sb = new StringBuilder("ms p50/p95/p99");
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] == 0) continue;
+            sb.append('\n').append(b == lastBucket ? '*' : ' ').append(SIZE_NAMES[b])
+                .append(' ').append(percentile(b, 50))
+                .append('/').append(percentile(b, 95))
+                .append('/').append(percentile(b, 99))
+                .append(" n=").append(counts[b]);
+        }
+        return sb.toString();
+    }
+
+    // CSV with the percentiles per size, followed by the full histograms
+    public String export() {
+        StringBuilder sb = new StringBuilder("size,samples,p50_ms,p95_ms,p99_ms\n");
+        for (int b = 0; b < counts.length; b++) {
+            sb.append(SIZE_NAMES[b]).append(',').append(counts[b]).append(',')
+                .append(percentile(b, 50)).append(',')
+                .append(percentile(b, 95)).append(',')
+                .append(percentile(b, 99)).append('\n');
+        }
+        sb.append("\nsize,ms,count\n");
+        for (int b = 0; b < counts.length; b++) {
+            for (int ms = 0; ms <= MAX_MILLIS; ms++) {
+                if (histograms[b][ms] == 0) continue;
+                sb.append(SIZE_NAMES[b]).append(',').append(ms == MAX_MILLIS ? MAX_MILLIS + "+" : String.valueOf(ms))
+                    .append(',').append(histograms[b][ms]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Smallest latency in milliseconds that percent of the samples do not exceed
+    private int percentile(int bucket, int percent) {
+        int count = counts[bucket];
+        if (count == 0) return 0;
+        long needed = ((long) count * percent + 99) / 100;
+        long seen = 0;
+        for (int ms = 0; ms <= MAX_MILLIS; ms++) {
+            seen += histograms[bucket][ms];
+            if (seen >= needed) return ms;
+        }
+        return MAX_MILLIS;
+    }
+
+    private static int bucketOf(long documentLength) {
+        int b = 0;
+        while (documentLength >= SIZE_LIMITS[b]) b++;
+        return b;
+    }
+}
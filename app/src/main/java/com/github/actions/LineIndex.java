@@ -0,0 +1,281 @@
+package com.github.actions;
+
+// Line-start index over a document, kept as a balanced tree of line lengths (each length
+// includes the line's trailing newline). Every node also holds the line count and total
+// length of its subtree, so line/offset lookups and edits take O(log n) even when they add
+// or remove lines. Built once when a file is opened and updated from each edit, so lookups
+// never re-split the text.
+//
+// The tree is a treap in parallel arrays, with slot 0 standing for the empty tree. A node's
+// priority is a hash of its slot, which keeps the shape random without storing one.
+public class LineIndex {
+    private int[] left;
+    private int[] right;
+    private int[] size; // Lines in the subtree
+    private int[] sum; // Characters in the subtree
+    private int[] lengths; // The node's own line
+    private int root;
+    private int used; // Slots handed out so far
+    private int free; // Released slots, chained through left
+    private int splitLeft;
+    private int splitRight;
+
+    public LineIndex(CharSequence text) {
+        grow(16);
+        int[] lineLengths = new int[16];
+        int count = 0;
+        int lineStart = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                if (count == lineLengths.length) {
+                    lineLengths = java.util.Arrays.copyOf(lineLengths, count * 2);
+                }
+                lineLengths[count++] = Math.min(i + 1, text.length()) - lineStart;
+                lineStart = i + 1;
+            }
+        }
+        root = build(lineLengths, count);
+    }
+
+    public int lineCount() {
+        return size[root];
+    }
+
+    public int length() {
+        return sum[root];
+    }
+
+    // Offset of the first character of a zero-based line
+    public int lineStart(int line) {
+        if (line <= 0) return 0;
+        if (line >= size[root]) return length();
+        return prefix(line);
+    }
+
+    // Length of a line including its trailing newline
+    public int lineLength(int line) {
+        int t = root;
+        while (true) {
+            int before = size[left[t]];
+            if (line < before) {
+                t = left[t];
+            } else if (line > before) {
+                line -= before + 1;
+                t = right[t];
+            } else {
+                return lengths[t];
+            }
+        }
+    }
+
+    // Offset just past the last character of a line, excluding its newline
+    public int lineEnd(int line) {
+        int end = lineStart(line) + lineLength(line);
+        return line < size[root] - 1 ? end - 1 : end;
+    }
+
+    // Zero-based line containing offset: the number of whole lines that fit before it
+    public int lineOfOffset(int offset) {
+        if (offset <= 0) return 0;
+        int line = 0;
+        int remaining = offset;
+        for (int t = root; t != 0; ) {
+            if (sum[left[t]] > remaining) {
+                t = left[t];
+            } else if (sum[left[t]] + lengths[t] <= remaining) {
+                line += size[left[t]] + 1;
+                remaining -= sum[left[t]] + lengths[t];
+                t = right[t];
+            } else {
+                line += size[left[t]];
+                break;
+            }
+        }
+        return Math.min(line, size[root] - 1);
+    }
+
+    // Applies an edit that replaced removedLength chars at start with inserted
+    public void update(int start, int removedLength, CharSequence inserted) {
+        update(start, removedLength, inserted, 0, inserted.length());
+    }
+
+    // Same as above, with the inserted text given as a range of source (no copy needed)
+    public void update(int start, int removedLength, CharSequence source, int sourceStart, int sourceEnd) {
+        int startLine = lineOfOffset(start);
+        int endLine = lineOfOffset(start + removedLength);
+        int prefixLength = start - lineStart(startLine);
+        int suffixLength = lineStart(endLine) + lineLength(endLine) - (start + removedLength);
+
+        int newLines = 1;
+        for (int i = sourceStart; i < sourceEnd; i++) {
+            if (source.charAt(i) == '\n') newLines++;
+        }
+        int oldLines = endLine - startLine + 1;
+
+        if (newLines == oldLines) {
+            // Same line structure - only point updates, O(lines touched * log n)
+            int line = startLine;
+            int lineLength = prefixLength;
+            for (int i = sourceStart; i < sourceEnd; i++) {
+                lineLength++;
+                if (source.charAt(i) == '\n') {
+                    setLength(root, line++, lineLength);
+                    lineLength = 0;
+                }
+            }
+            setLength(root, line, lineLength + suffixLength);
+            return;
+        }
+
+        // Line count changed - cut the old lines out of the tree and put the new ones in
+        int[] replacement = new int[newLines];
+        int line = 0;
+        int lineLength = prefixLength;
+        for (int i = sourceStart; i < sourceEnd; i++) {
+            lineLength++;
+            if (source.charAt(i) == '\n') {
+                replacement[line++] = lineLength;
+                lineLength = 0;
+            }
+        }
+        replacement[line] = lineLength + suffixLength;
+
+        split(root, startLine);
+        int before = splitLeft;
+        split(splitRight, oldLines);
+        int after = splitRight;
+        release(splitLeft);
+        root = merge(merge(before, build(replacement, newLines)), after);
+    }
+
+    private void setLength(int t, int line, int length) {
+        int before = size[left[t]];
+        if (line < before) {
+            setLength(left[t], line, length);
+        } else if (line > before) {
+            setLength(right[t], line - before - 1, length);
+        } else {
+            lengths[t] = length;
+        }
+        sum[t] = sum[left[t]] + lengths[t] + sum[right[t]];
+    }
+
+    // Total length of the first lines lines
+    private int prefix(int lines) {
+        int total = 0;
+        for (int t = root; t != 0; ) {
+            int before = size[left[t]];
+            if (lines <= before) {
+                t = left[t];
+            } else {
+                total += sum[left[t]] + lengths[t];
+                lines -= before + 1;
+                t = right[t];
+            }
+        }
+        return total;
+    }
+
+    // Splits t after its first count lines into splitLeft and splitRight
+    private void split(int t, int count) {
+        if (t == 0) {
+            splitLeft = splitRight = 0;
+            return;
+        }
+        if (count <= size[left[t]]) {
+            split(left[t], count);
+            left[t] = splitRight;
+            pull(t);
+            splitRight = t;
+        } else {
+            split(right[t], count - size[left[t]] - 1);
+            right[t] = splitLeft;
+            pull(t);
+            splitLeft = t;
+        }
+    }
+
+    private int merge(int a, int b) {
+        if (a == 0) return b;
+        if (b == 0) return a;
+        if (priority(a) > priority(b)) {
+            right[a] = merge(right[a], b);
+            pull(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        pull(b);
+        return b;
+    }
+
+    // Builds a tree of count lines in linear time, keeping the right spine on a stack
+    private int build(int[] values, int count) {
+        int[] spine = new int[32];
+        int depth = 0;
+        for (int i = 0; i < count; i++) {
+            int node = allocate(values[i]);
+            int last = 0;
+            while (depth > 0 && priority(spine[depth - 1]) < priority(node)) {
+                // Nothing is added under a node once it leaves the spine
+                last = spine[--depth];
+                pull(last);
+            }
+            left[node] = last;
+            if (depth > 0) right[spine[depth - 1]] = node;
+            if (depth == spine.length) {
+                spine = java.util.Arrays.copyOf(spine, depth * 2);
+            }
+            spine[depth++] = node;
+        }
+        int top = depth > 0 ? spine[0] : 0;
+        while (depth > 0) {
+            pull(spine[--depth]);
+        }
+        return top;
+    }
+
+    private void pull(int t) {
+        size[t] = size[left[t]] + 1 + size[right[t]];
+        sum[t] = sum[left[t]] + lengths[t] + sum[right[t]];
+    }
+
+    private int allocate(int length) {
+        int t;
+        if (free != 0) {
+            t = free;
+            free = left[t];
+        } else {
+            if (used + 1 == lengths.length) grow(lengths.length * 2);
+            t = ++used;
+        }
+        left[t] = right[t] = 0;
+        size[t] = 1;
+        sum[t] = lengths[t] = length;
+        return t;
+    }
+
+    private void release(int t) {
+        if (t == 0) return;
+        release(left[t]);
+        release(right[t]);
+        left[t] = free;
+        free = t;
+    }
+
+    private void grow(int capacity) {
+        left = left == null ? new int[capacity] : java.util.Arrays.copyOf(left, capacity);
+        right = right == null ? new int[capacity] : java.util.Arrays.copyOf(right, capacity);
+        size = size == null ? new int[capacity] : java.util.Arrays.copyOf(size, capacity);
+        sum = sum == null ? new int[capacity] : java.util.Arrays.copyOf(sum, capacity);
+        lengths = lengths == null ? new int[capacity] : java.util.Arrays.copyOf(lengths, capacity);
+    }
+
+    // Fixed per slot and spread over the whole int range, so slots are ordered at random
+    private static int priority(int t) {
+        int h = t * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.actions;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+// Line numbers for an EditText inside a ScrollView, drawn straight from the editor's Layout.
+// Only the rows in view are visited, so a frame costs the same for ten lines as for a
+// hundred thousand. A wrapped line gets its number on its first row, next to where it starts.
+public class LineNumberGutter extends android.view.View {
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final char[] digitBuffer = new char[11];
+    private android.widget.TextView editor;
+    private android.view.View scroller;
+    private LineIndex lines; // Index of the editor text, or null for no numbers
+    private int headLines;
+    private int tailLines;
+    private int firstNumber;
+    private int digits = 1;
+
+    public LineNumberGutter(android.content.Context context) {
+        super(context);
+        paint.setTypeface(android.graphics.Typeface.MONOSPACE);
+        paint.setTextAlign(Paint.Align.RIGHT);
+    }
+
+    // The gutter sits beside the scroller, top-aligned with it, and follows the editor's text size
+    public void setEditor(android.widget.TextView editor, android.view.View scroller) {
+        this.editor = editor;
+        this.scroller = scroller;
+        requestLayout();
+    }
+
+    public void setTextColor(int color) {
+        paint.setColor(color);
+        invalidate();
+    }
+
+    // Numbers the lines of the editor text, leaving out headLines at the top and tailLines at
+    // the bottom; the first numbered line shows firstNumber. The index must be kept up to date
+    // with the editor text. null shows no numbers.
+    public void setNumbering(LineIndex lines, int headLines, int tailLines, int firstNumber) {
+        this.lines = lines;
+        this.headLines = headLines;
+        this.tailLines = tailLines;
+        this.firstNumber = firstNumber;
+        linesChanged();
+    }
+
+    // Redraws after an edit, and widens the gutter when the largest number gains a digit
+    public void linesChanged() {
+        int largest = lines == null ? 1 : firstNumber + lines.lineCount() - headLines - tailLines - 1;
+        int needed = Integer.toString(Math.max(1, largest)).length();
+        if (needed != digits) {
+            digits = needed;
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (editor != null) paint.setTextSize(editor.getTextSize());
+        int width = (int) Math.ceil(paint.measureText("0") * digits) + getPaddingLeft() + getPaddingRight();
+        setMeasuredDimension(width, getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        android.text.Layout layout = editor != null ? editor.getLayout() : null;
+        if (layout == null || lines == null) return;
+        paint.setTextSize(editor.getTextSize());
+        CharSequence text = editor.getText();
+        int top = editor.getTop() + editor.getTotalPaddingTop() - scroller.getScrollY();
+        int firstRow = layout.getLineForVertical(Math.max(0, -top));
+        int lastRow = layout.getLineForVertical(getHeight() - top);
+        int numberedEnd = lines.lineCount() - tailLines;
+        float x = getWidth() - getPaddingRight();
+        for (int row = firstRow; row <= lastRow; row++) {
+            int start = layout.getLineStart(row);
+            // Rows that continue a wrapped line are not numbered
+            if (start > 0 && text.charAt(start - 1) != '\n') continue;
+            if (start > lines.length()) break;
+            int line = lines.lineOfOffset(start);
+            if (line < headLines || line >= numberedEnd) continue;
+            int from = formatNumber(firstNumber + line - headLines);
+            canvas.drawText(digitBuffer, from, digitBuffer.length - from, x, top + layout.getLineBaseline(row), paint);
+        }
+    }
+
+    // Writes the number right-aligned into digitBuffer and returns where it starts
+    private int formatNumber(int number) {
+        int pos = digitBuffer.length;
+        do {
+            digitBuffer[--pos] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        return pos;
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.actions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Read-only view of a file mapped with FileChannel.map. Only a sparse line index
+// (one byte offset every CHECKPOINT_LINES lines) lives on the heap; text is decoded
+// window by window on demand, so files larger than the heap can be browsed.
+public class MappedTextFile implements Closeable {
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final int CHECKPOINT_LINES = 1024;
+    public static final int MAX_WINDOW_BYTES = 1 << 20;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private long[] checkpoints = new long[64];
+    private int lineCount;
+
+    // Maps and indexes the file; scans every byte once, so call it off the UI thread
+    public MappedTextFile(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        size = channel.size();
+        int segmentCount = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long start = (long) i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        buildIndex();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    // Byte offset of the first byte of a zero-based line
+    public long lineOffset(int line) {
+        if (line <= 0) return 0;
+        if (line >= lineCount) return size;
+        long pos = checkpoints[line / CHECKPOINT_LINES];
+        for (int i = line % CHECKPOINT_LINES; i > 0; i--) {
+            pos = indexOfNewline(pos) + 1;
+        }
+        return pos;
+    }
+
+    // Zero-based line containing a byte offset
+    public int lineOfOffset(long offset) {
+        int lo = 0;
+        int hi = (lineCount - 1) / CHECKPOINT_LINES;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (checkpoints[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int line = lo * CHECKPOINT_LINES;
+        long pos = checkpoints[lo];
+        while (line < lineCount - 1) {
+            long next = indexOfNewline(pos) + 1;
+            if (next > offset) break;
+            pos = next;
+            line++;
+        }
+        return line;
+    }
+
+    // Decodes up to count lines starting at firstLine, capped at MAX_WINDOW_BYTES
+    public String readLines(int firstLine, int count) {
+        long start = lineOffset(firstLine);
+        long end = lineOffset(firstLine + count);
+        // Drop the newline that ends the window so it joins cleanly with the next one
+        if (end > start && firstLine + count < lineCount) end--;
+        if (end - start > MAX_WINDOW_BYTES) {
+            // Cut before a character rather than inside one: back off over continuation bytes
+            end = start + MAX_WINDOW_BYTES;
+            while (end > start && (byteAt(end) & 0xC0) == 0x80) end--;
+        }
+        return decode(start, end);
+    }
+
+    public String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        read(start, bytes);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            CharBuffer chars = decoder.decode(ByteBuffer.wrap(bytes));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Byte offset of the next occurrence of pattern at or after from, or -1
+    public long find(byte[] pattern, long from) {
+        if (pattern.length == 0) return -1;
+        byte first = pattern[0];
+        for (long pos = Math.max(0, from); pos + pattern.length <= size; pos++) {
+            if (byteAt(pos) != first) continue;
+            int i = 1;
+            while (i < pattern.length && byteAt(pos + i) == pattern[i]) i++;
+            if (i == pattern.length) return pos;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    private void buildIndex() {
+        lineCount = 1;
+        checkpoints[0] = 0;
+        for (long pos = 0; pos < size; pos++) {
+            if (byteAt(pos) == '\n') {
+                if (lineCount % CHECKPOINT_LINES == 0) {
+                    int slot = lineCount / CHECKPOINT_LINES;
+                    if (slot == checkpoints.length) {
+                        long[] grown = new long[checkpoints.length * 2];
+                        System.arraycopy(checkpoints, 0, grown, 0, checkpoints.length);
+                        checkpoints = grown;
+                    }
+                    checkpoints[slot] = pos + 1;
+                }
+                lineCount++;
+            }
+        }
+    }
+
+    private long indexOfNewline(long from) {
+        for (long pos = from; pos < size; pos++) {
+            if (byteAt(pos) == '\n') return pos;
+        }
+        return size;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+    }
+
+    private void read(long start, byte[] dest) {
+        int copied = 0;
+        while (copied < dest.length) {
+            long pos = start + copied;
+            ByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (pos % SEGMENT_SIZE));
+            int count = Math.min(dest.length - copied, segment.remaining());
+            segment.get(dest, copied, count);
+            copied += count;
+        }
+    }
+}
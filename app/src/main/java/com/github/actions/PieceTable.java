@@ -0,0 +1,265 @@
+package com.github.actions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+// Piece-table text buffer for large files. The file content stays in an immutable
+// original buffer and every edit appends its text to an add buffer, so an edit only
+// touches the piece list instead of copying the whole document. The add buffer is a run of
+// chunks that are only ever appended to, and a piece points at the chunk holding its text,
+// so copies share them: a table only writes past the end of what its copies can see.
+public class PieceTable implements CharSequence {
+    private static final int ADD_CHUNK = 16 * 1024; // Chars per add buffer chunk
+
+    private final String original;
+    private char[] tail; // Chunk edits append to; null until the first edit, and in a copy
+    private int tailUsed;
+    private ArrayList<Piece> pieces = new ArrayList<>();
+    private int[] pieceStarts = new int[4]; // Offset of each piece; longer than the piece list
+    private int length;
+
+    public PieceTable(String content) {
+        original = content;
+        length = content.length();
+        if (length > 0) {
+            pieces.add(new Piece(null, 0, length));
+        }
+    }
+
+    private PieceTable(PieceTable source) {
+        original = source.original;
+        pieces = new ArrayList<>(source.pieces);
+        pieceStarts = source.pieceStarts.clone();
+        length = source.length;
+    }
+
+    // Frozen copy for a background writer. Both buffers are shared, so this only costs the
+    // piece list; edits to either table afterwards do not show in the other.
+    public PieceTable copy() {
+        return new PieceTable(this);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        int p = findPiece(index);
+        return charOf(pieces.get(p), index - pieceStarts[p]);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return getText(start, end);
+    }
+
+    public String getText(int start, int end) {
+        checkRange(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(sb, start, end);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        appendRange(sb, 0, length);
+        return sb.toString();
+    }
+
+    public void appendRange(StringBuilder sb, int start, int end) {
+        if (start >= end) return;
+        int p = findPiece(start);
+        int pos = start;
+        while (pos < end) {
+            Piece piece = pieces.get(p);
+            int offsetInPiece = pos - pieceStarts[p];
+            int count = Math.min(piece.length - offsetInPiece, end - pos);
+            if (piece.chars != null) {
+                sb.append(piece.chars, piece.start + offsetInPiece, count);
+            } else {
+                sb.append(original, piece.start + offsetInPiece, piece.start + offsetInPiece + count);
+            }
+            pos += count;
+            p++;
+        }
+    }
+
+    // True if the range [start, end) holds exactly the given text
+    public boolean regionEquals(int start, int end, CharSequence text) {
+        checkRange(start, end);
+        if (end - start != text.length()) return false;
+        if (start == end) return true;
+        int p = findPiece(start);
+        int pos = start;
+        int i = 0;
+        while (pos < end) {
+            Piece piece = pieces.get(p);
+            int offsetInPiece = pos - pieceStarts[p];
+            int count = Math.min(piece.length - offsetInPiece, end - pos);
+            for (int k = 0; k < count; k++) {
+                if (charOf(piece, offsetInPiece + k) != text.charAt(i++)) return false;
+            }
+            pos += count;
+            p++;
+        }
+        return true;
+    }
+
+    public int indexOf(char c, int from) {
+        if (from < 0) from = 0;
+        if (from >= length) return -1;
+        int p = findPiece(from);
+        int pos = from;
+        while (p < pieces.size()) {
+            Piece piece = pieces.get(p);
+            for (int k = pos - pieceStarts[p]; k < piece.length; k++) {
+                if (charOf(piece, k) == c) return pieceStarts[p] + k;
+            }
+            pos = pieceStarts[p] + piece.length;
+            p++;
+        }
+        return -1;
+    }
+
+    public int indexOf(CharSequence text, int from) {
+        if (text.length() == 0) return Math.max(0, Math.min(from, length));
+        char first = text.charAt(0);
+        for (int pos = indexOf(first, from); pos >= 0 && pos + text.length() <= length; pos = indexOf(first, pos + 1)) {
+            if (regionEquals(pos, pos + text.length(), text)) return pos;
+        }
+        return -1;
+    }
+
+    public void insert(int offset, CharSequence text) {
+        replace(offset, offset, text);
+    }
+
+    public void delete(int start, int end) {
+        replace(start, end, "");
+    }
+
+    public void replace(int start, int end, CharSequence text) {
+        checkRange(start, end);
+        if (start == end && text.length() == 0) return;
+
+        // Split the pieces so that [start, end) falls exactly on piece boundaries
+        int first = splitAt(start);
+        int last = splitAt(end);
+        int count = pieces.size();
+        pieces.subList(first, last).clear();
+        System.arraycopy(pieceStarts, last, pieceStarts, first, count - last);
+        int next = first;
+        if (text.length() > 0) {
+            pieces.add(first, append(text));
+            insertStart(first, start);
+            next++;
+        }
+        // Only the pieces after the edit move
+        int delta = text.length() - (end - start);
+        for (int i = next; i < pieces.size(); i++) {
+            pieceStarts[i] += delta;
+        }
+        length += delta;
+    }
+
+    // Streams the document piece by piece without building a String
+    public void writeTo(Writer writer) throws IOException {
+        for (Piece piece : pieces) {
+            if (piece.chars != null) {
+                writer.write(piece.chars, piece.start, piece.length);
+            } else {
+                writer.write(original, piece.start, piece.length);
+            }
+        }
+    }
+
+    // Copies text to the end of the add buffer and returns the piece holding it. A copy starts
+    // a chunk of its own, so it never writes where the table it was copied from does.
+    private Piece append(CharSequence text) {
+        int count = text.length();
+        if (tail == null || tail.length - tailUsed < count) {
+            tail = new char[Math.max(ADD_CHUNK, count)];
+            tailUsed = 0;
+        }
+        if (text instanceof String) {
+            ((String) text).getChars(0, count, tail, tailUsed);
+        } else {
+            for (int i = 0; i < count; i++) {
+                tail[tailUsed + i] = text.charAt(i);
+            }
+        }
+        Piece piece = new Piece(tail, tailUsed, count);
+        tailUsed += count;
+        return piece;
+    }
+
+    // Returns the index of the first piece starting at offset, splitting a piece if needed
+    private int splitAt(int offset) {
+        if (offset >= length) return pieces.size();
+        int p = findPiece(offset);
+        int inPiece = offset - pieceStarts[p];
+        if (inPiece == 0) return p;
+        Piece piece = pieces.get(p);
+        pieces.set(p, new Piece(piece.chars, piece.start, inPiece));
+        pieces.add(p + 1, new Piece(piece.chars, piece.start + inPiece, piece.length - inPiece));
+        insertStart(p + 1, offset);
+        return p + 1;
+    }
+
+    // Makes room for the start of a piece just added to the list at index
+    private void insertStart(int index, int start) {
+        int count = pieces.size();
+        if (count > pieceStarts.length) {
+            pieceStarts = java.util.Arrays.copyOf(pieceStarts, count * 2);
+        }
+        System.arraycopy(pieceStarts, index, pieceStarts, index + 1, count - 1 - index);
+        pieceStarts[index] = start;
+    }
+
+    private int findPiece(int offset) {
+        int lo = 0;
+        int hi = pieces.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (pieceStarts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private char charOf(Piece piece, int offsetInPiece) {
+        return piece.chars != null ? piece.chars[piece.start + offsetInPiece] : original.charAt(piece.start + offsetInPiece);
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + ".." + end + ", length " + length);
+        }
+    }
+
+    private static final class Piece {
+        final char[] chars; // Add buffer chunk holding the text, null for the original
+        final int start;
+        final int length;
+
+        Piece(char[] chars, int start, int length) {
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+        }
+    }
+}
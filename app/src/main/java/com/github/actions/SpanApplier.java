@@ -0,0 +1,59 @@
+package com.github.actions;
+
+// Spreads UI-thread work over frames. Each frame it runs steps until the time budget is used
+// up, then waits for the next frame, so a pass touching thousands of spans never blocks
+// drawing. The caller orders its steps by priority; a new schedule() continues the pass in
+// progress, so the frame count covers everything until the work runs out.
+public class SpanApplier implements android.view.Choreographer.FrameCallback {
+    public interface Work {
+        // Does one small unit of work; returns false when nothing is left
+        boolean step();
+    }
+
+    private static final long FRAME_BUDGET_NANOS = 4_000_000; // Leaves most of a 16 ms frame for drawing
+
+    private final Work work;
+    private boolean posted;
+    private int passFrames; // Frames used so far by the pass in progress
+    private int lastPassFrames;
+
+    public SpanApplier(Work work) {
+        this.work = work;
+    }
+
+    // Makes sure a frame callback is pending; cheap to call for every change
+    public void schedule() {
+        if (posted) return;
+        posted = true;
+        android.view.Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void cancel() {
+        if (!posted) return;
+        posted = false;
+        passFrames = 0;
+        android.view.Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    // Frames the last finished pass was spread over
+    public int lastPassFrames() {
+        return lastPassFrames;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        posted = false;
+        passFrames++;
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        boolean more;
+        do {
+            more = work.step();
+        } while (more && System.nanoTime() < deadline);
+        if (more) {
+            schedule();
+        } else {
+            lastPassFrames = passFrames;
+            passFrames = 0;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.actions;
+
+// Incremental highlighter: caches the lexer state at the start of every line, so after an
+// edit only the changed lines are re-lexed, followed by as many lines as it takes for the
+// state at a line start to match the cached one again. Typing inside a line therefore costs
+// a single line, while opening a block comment re-lexes up to where it is closed.
+public class SyntaxHighlighter {
+    private static final int PARALLEL_MIN_LINES = 4096; // Below this one thread is fast enough
+    private static final int BLOCK_LINES = 1024; // Smallest block of lines lexed as one task
+
+    public interface LineSink {
+        // Called with the tokens of a freshly lexed line; offsets are in the text passed to update
+        void onLine(int line, int start, int end, SyntaxLexer.Tokens tokens);
+    }
+
+    private final SyntaxLexer lexer;
+    private final SyntaxLexer.Tokens tokens = new SyntaxLexer.Tokens();
+    private int[] states = new int[256]; // Lexer state at the start of each line
+    private int lineCount;
+    private int valid; // Lines whose cached state is up to date, counted from the top
+    private int dirtyFrom = Integer.MAX_VALUE; // First line that has to be re-lexed
+    private int dirtyTo = -1; // Last line whose text changed
+
+    public SyntaxHighlighter(SyntaxLexer lexer) {
+        this.lexer = lexer;
+    }
+
+    public SyntaxLexer lexer() {
+        return lexer;
+    }
+
+    // Forgets everything; the next update lexes all lines
+    public void reset(int lines) {
+        lineCount = lines;
+        ensureCapacity(lines + 1);
+        states[0] = SyntaxLexer.STATE_NORMAL;
+        valid = 1;
+        dirtyFrom = 0;
+        dirtyTo = lines - 1;
+    }
+
+    // Lines [line, line + removedLines] were replaced by [line, line + insertedLines]
+    public void linesChanged(int line, int removedLines, int insertedLines) {
+        int delta = insertedLines - removedLines;
+        if (delta != 0) {
+            // Keep the cached states of the lines below the edit, now shifted
+            int tail = line + removedLines + 1;
+            if (valid > tail) {
+                ensureCapacity(valid + delta + 1);
+                System.arraycopy(states, tail, states, tail + delta, valid - tail);
+                valid += delta;
+            } else {
+                valid = Math.min(valid, line + 1);
+            }
+            if (dirtyTo > line + removedLines) dirtyTo += delta;
+            else if (dirtyTo > line + insertedLines) dirtyTo = line + insertedLines;
+        }
+        lineCount += delta;
+        dirtyFrom = Math.min(dirtyFrom, line);
+        dirtyTo = Math.max(dirtyTo, line + insertedLines);
+    }
+
+    public boolean isDirty() {
+        return dirtyFrom <= dirtyTo;
+    }
+
+    // Re-lexes the changed lines and whatever follows until the states converge, handing each
+    // lexed line to sink. Returns the number of lines lexed.
+    public int update(CharSequence text, LineIndex lines, LineSink sink) {
+        if (!isDirty()) return 0;
+        int line = Math.min(dirtyFrom, valid - 1);
+        int last = Math.min(dirtyTo, lineCount - 1);
+        int lexed = 0;
+        int state = states[line];
+        while (line < lineCount) {
+            int start = lines.lineStart(line);
+            int end = lines.lineEnd(line);
+            tokens.clear();
+            state = lexer.lexLine(text, start, end, state, tokens);
+            sink.onLine(line, start, end, tokens);
+            lexed++;
+            line++;
+            if (line >= lineCount) break;
+            if (line > last && line < valid && states[line] == state) break;
+            ensureCapacity(line + 1);
+            states[line] = state;
+            valid = Math.max(valid, line + 1);
+        }
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+        return lexed;
+    }
+
+    // Lexes every line from scratch, in parallel on the pool. The lines are cut into blocks;
+    // every block but the first is lexed starting from the normal state, which is right unless
+    // a comment or string runs across its first line break. Blocks are then stitched in order:
+    // where a block's true entry state differs from the guess, its lines are re-lexed until
+    // their states match the ones found in parallel. The sink must accept calls from several
+    // threads for different lines, and the text must not change while this runs.
+    public void lexAll(CharSequence text, LineIndex lines, LineSink sink, java.util.concurrent.ForkJoinPool pool) {
+        reset(lines.lineCount());
+        int blocks = Math.min(lineCount / BLOCK_LINES, pool.getParallelism() * 4);
+        if (lineCount < PARALLEL_MIN_LINES || blocks < 2) {
+            update(text, lines, sink);
+            return;
+        }
+        ensureCapacity(lineCount + 1);
+        int[] blockStarts = new int[blocks + 1];
+        for (int b = 0; b <= blocks; b++) {
+            blockStarts[b] = (int) ((long) lineCount * b / blocks);
+        }
+        pool.invoke(new LexBlocks(text, lines, sink, blockStarts, 0, blocks));
+
+        // Fix up blocks whose guessed entry state was wrong
+        int line = 0;
+        for (int b = 1; b < blocks; b++) {
+            line = Math.max(line, blockStarts[b]);
+            if (line != blockStarts[b] || states[line] == SyntaxLexer.STATE_NORMAL) continue;
+            int state = states[line];
+            while (line < lineCount) {
+                int start = lines.lineStart(line);
+                int end = lines.lineEnd(line);
+                tokens.clear();
+                int next = lexer.lexLine(text, start, end, state, tokens);
+                sink.onLine(line, start, end, tokens);
+                line++;
+                if (line < lineCount && states[line] == next) break;
+                states[line] = next;
+                state = next;
+            }
+        }
+        valid = lineCount;
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+    }
+
+    // Lexes blocks [from, to) by splitting them in halves until a single block is left
+    private final class LexBlocks extends java.util.concurrent.RecursiveAction {
+        private final CharSequence text;
+        private final LineIndex lines;
+        private final LineSink sink;
+        private final int[] blockStarts;
+        private final int from;
+        private final int to;
+
+        LexBlocks(CharSequence text, LineIndex lines, LineSink sink, int[] blockStarts, int from, int to) {
+            this.text = text;
+            this.lines = lines;
+            this.sink = sink;
+            this.blockStarts = blockStarts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LexBlocks(text, lines, sink, blockStarts, from, mid),
+                    new LexBlocks(text, lines, sink, blockStarts, mid, to));
+                return;
+            }
+            // Each block writes the states of its own lines plus the start of the next block
+            SyntaxLexer.Tokens blockTokens = new SyntaxLexer.Tokens();
+            int state = SyntaxLexer.STATE_NORMAL;
+            for (int line = blockStarts[from]; line < blockStarts[to]; line++) {
+                int start = lines.lineStart(line);
+                int end = lines.lineEnd(line);
+                blockTokens.clear();
+                state = lexer.lexLine(text, start, end, state, blockTokens);
+                sink.onLine(line, start, end, blockTokens);
+                states[line + 1] = state;
+            }
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > states.length) {
+            states = java.util.Arrays.copyOf(states, Math.max(size, states.length * 2));
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.github.actions;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+// Single-pass tokenizer for one language. It lexes a line at a time and carries a small int
+// state across line breaks (inside a block comment, inside a multi-line string), which is all
+// SyntaxHighlighter needs to cache per line to re-lex incrementally. Keywords are compiled
+// into a trie of flat arrays, so recognising one never allocates. A lexer is immutable and
+// can be shared between threads; GrammarRegistry builds one per language.
+public class SyntaxLexer {
+    public static final int STATE_NORMAL = 0;
+    public static final int STATE_BLOCK_COMMENT = 1;
+    // STATE_STRING + i: inside a string opened by multilineQuotes.charAt(i)
+    public static final int STATE_STRING = 2;
+
+    public static final int KEYWORD = 1;
+    public static final int STRING = 2;
+    public static final int COMMENT = 3;
+    public static final int NUMBER = 4;
+    public static final int FUNCTION = 5;
+    public static final int TOKEN_TYPES = 6;
+
+    // How foldable blocks are found: bracket pairs, indentation, or markup elements
+    public static final int FOLD_BRACKETS = 0;
+    public static final int FOLD_INDENT = 1;
+    public static final int FOLD_TAGS = 2;
+
+    // Flat (type, start, end) triples
+    public static final class Tokens {
+        int[] data = new int[48];
+        int size;
+
+        public int count() {
+            return size / 3;
+        }
+
+        public int type(int i) {
+            return data[3 * i];
+        }
+
+        public int start(int i) {
+            return data[3 * i + 1];
+        }
+
+        public int end(int i) {
+            return data[3 * i + 2];
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        void add(int type, int start, int end) {
+            if (size + 3 > data.length) {
+                data = java.util.Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = type;
+            data[size++] = start;
+            data[size++] = end;
+        }
+    }
+
+    // Keyword trie: node n has edgeCount[n] outgoing edges starting at firstEdge[n], sorted by char
+    private final int[] firstEdge;
+    private final int[] edgeCount;
+    private final boolean[] terminal;
+    private final char[] edgeChar;
+    private final int[] edgeTarget;
+
+    private final String[] lineComments;
+    private final String blockStart;
+    private final String blockEnd;
+    private final String quotes;
+    private final String multilineQuotes;
+    private final String identifierChars;
+    private final String numberChars;
+    private final int folding;
+
+    // blockStart/blockEnd may be null; identifierChars and numberChars are allowed in
+    // identifiers and numbers on top of letters and digits; folding is one of FOLD_*
+    public SyntaxLexer(String[] keywords, String[] lineComments, String blockStart, String blockEnd,
+                       String quotes, String multilineQuotes, String identifierChars, String numberChars,
+                       int folding) {
+        this.lineComments = lineComments;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+        this.quotes = quotes;
+        this.multilineQuotes = multilineQuotes;
+        this.identifierChars = identifierChars;
+        this.numberChars = numberChars;
+        this.folding = folding;
+
+        // Build the trie with maps, then flatten it into the arrays
+        ArrayList<TreeMap<Character, Integer>> children = new ArrayList<>();
+        ArrayList<Boolean> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add(false);
+        int edges = 0;
+        for (String keyword : keywords) {
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                Integer next = children.get(node).get(keyword.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    ends.add(false);
+                    children.get(node).put(keyword.charAt(i), next);
+                    edges++;
+                }
+                node = next;
+            }
+            ends.set(node, true);
+        }
+        firstEdge = new int[children.size()];
+        edgeCount = new int[children.size()];
+        terminal = new boolean[children.size()];
+        edgeChar = new char[edges];
+        edgeTarget = new int[edges];
+        int edge = 0;
+        for (int node = 0; node < children.size(); node++) {
+            firstEdge[node] = edge;
+            edgeCount[node] = children.get(node).size();
+            terminal[node] = ends.get(node);
+            for (java.util.Map.Entry<Character, Integer> child : children.get(node).entrySet()) {
+                edgeChar[edge] = child.getKey();
+                edgeTarget[edge] = child.getValue();
+                edge++;
+            }
+        }
+    }
+
+    public int folding() {
+        return folding;
+    }
+
+    // Lexes text[start, end), a single line without its newline, beginning in the given
+    // state. Tokens are appended to out (if not null); returns the state at the end of the line.
+    public int lexLine(CharSequence text, int start, int end, int state, Tokens out) {
+        int i = start;
+        if (state == STATE_BLOCK_COMMENT) {
+            int close = find(text, blockEnd, i, end);
+            if (close < 0) {
+                add(out, COMMENT, i, end);
+                return STATE_BLOCK_COMMENT;
+            }
+            add(out, COMMENT, i, close + blockEnd.length());
+            i = close + blockEnd.length();
+        } else if (state >= STATE_STRING) {
+            char quote = multilineQuotes.charAt(state - STATE_STRING);
+            int close = closingQuote(text, quote, i, end);
+            if (close < 0) {
+                add(out, STRING, i, end);
+                return state;
+            }
+            add(out, STRING, i, close + 1);
+            i = close + 1;
+        }
+
+        while (i < end) {
+            char c = text.charAt(i);
+            if (startsLineComment(text, i, end)) {
+                add(out, COMMENT, i, end);
+                return STATE_NORMAL;
+            }
+            if (blockStart != null && startsWith(text, blockStart, i, end)) {
+                int close = find(text, blockEnd, i + blockStart.length(), end);
+                if (close < 0) {
+                    add(out, COMMENT, i, end);
+                    return STATE_BLOCK_COMMENT;
+                }
+                add(out, COMMENT, i, close + blockEnd.length());
+                i = close + blockEnd.length();
+            } else if (quotes.indexOf(c) >= 0) {
+                int close = closingQuote(text, c, i + 1, end);
+                if (close < 0) {
+                    add(out, STRING, i, end);
+                    int multiline = multilineQuotes.indexOf(c);
+                    return multiline >= 0 ? STATE_STRING + multiline : STATE_NORMAL;
+                }
+                add(out, STRING, i, close + 1);
+                i = close + 1;
+            } else if (c >= '0' && c <= '9') {
+                int j = i + 1;
+                while (j < end && isNumberPart(text.charAt(j))) j++;
+                add(out, NUMBER, i, j);
+                i = j;
+            } else if (Character.isLetter(c) || identifierChars.indexOf(c) >= 0) {
+                int j = i + 1;
+                while (j < end && isIdentifierPart(text.charAt(j))) j++;
+                if (isKeyword(text, i, j)) {
+                    add(out, KEYWORD, i, j);
+                } else if (j < end && text.charAt(j) == '(') {
+                    add(out, FUNCTION, i, j);
+                }
+                i = j;
+            } else {
+                i++;
+            }
+        }
+        return STATE_NORMAL;
+    }
+
+    public boolean isKeyword(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int lo = firstEdge[node];
+            int hi = lo + edgeCount[node] - 1;
+            node = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (edgeChar[mid] < c) {
+                    lo = mid + 1;
+                } else if (edgeChar[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    node = edgeTarget[mid];
+                    break;
+                }
+            }
+            if (node < 0) return false;
+        }
+        return terminal[node];
+    }
+
+    private boolean startsLineComment(CharSequence text, int i, int end) {
+        for (String marker : lineComments) {
+            if (startsWith(text, marker, i, end)) return true;
+        }
+        return false;
+    }
+
+    // Index of the quote closing a string, skipping backslash escapes, or -1
+    private static int closingQuote(CharSequence text, char quote, int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int find(CharSequence text, String marker, int from, int end) {
+        for (int i = from; i + marker.length() <= end; i++) {
+            if (startsWith(text, marker, i, end)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, String marker, int i, int end) {
+        if (i + marker.length() > end) return false;
+        for (int k = 0; k < marker.length(); k++) {
+            if (text.charAt(i + k) != marker.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    // Letters cover hex digits, exponents and type suffixes
+    private boolean isNumberPart(char c) {
+        return Character.isLetterOrDigit(c) || numberChars.indexOf(c) >= 0;
+    }
+
+    private boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || identifierChars.indexOf(c) >= 0;
+    }
+
+    private static void add(Tokens out, int type, int start, int end) {
+        if (out != null && end > start) out.add(type, start, end);
+    }
+}
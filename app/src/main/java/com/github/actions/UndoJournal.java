@@ -0,0 +1,733 @@
+package com.github.actions;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Append-only undo journal for one file, kept in app-private storage. Each record is framed
+// with its length at both ends. The header remembers the file's length and modification time
+// at the last save together with the position of that save in the journal; if the file has
+// changed since, the history is dropped because its offsets no longer apply.
+//
+// The journal doubles as the autosave write-ahead log: records past the saved position are
+// edits that have not reached the file yet, and the header also tracks where undo/redo left
+// the cursor, so after a crash the document can be rolled forward (or back) to that point.
+//
+// The disk is only touched on IO, a background thread shared by all journals, so the UI
+// thread never waits on it while typing. Records are numbered from the oldest in the file;
+// the newest ones are kept in memory, older ones are read back when undo reaches them. A
+// record goes to disk once it can no longer grow, or when the journal is synced. Typing that
+// continues a record already on disk is appended as a continuation frame instead of rewriting
+// it; continuations are folded into their record when it is read and when the file is compacted.
+//
+// Opening reads the file on IO as well. Until it has, edits are numbered from zero and kept in
+// memory, and a save is only noted; both are put after the saved position once the open lands.
+public class UndoJournal implements EditHistory.Store {
+    private static final int MAGIC = 0x474A524E;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 8; // magic, file length, modified time, saved position, head
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+    private static final long TAIL_BYTES = 1024 * 1024; // Records kept in memory beyond the one before the cursor
+    private static final int PREFETCH_RECORDS = 64; // Older records read back at a time once undo nears them
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
+    private static final android.os.Handler MAIN = new android.os.Handler(android.os.Looper.getMainLooper());
+    // Journals in use by path, so a file reopened before its old history has let go (while a
+    // save is still in flight) gets the same journal instead of a second one on the same file.
+    // Only touched on the UI thread.
+    private static final java.util.HashMap<String, UndoJournal> OPEN = new java.util.HashMap<>();
+
+    // What the journal held when it was opened
+    private static final class Restored {
+        final long count;
+        final long saved;
+        final long head;
+        final long tailFrom;
+        final ArrayList<EditHistory.Edit> tail;
+
+        Restored(long count, long saved, long head, long tailFrom, ArrayList<EditHistory.Edit> tail) {
+            this.count = count;
+            this.saved = saved;
+            this.head = head;
+            this.tailFrom = tailFrom;
+            this.tail = tail;
+        }
+    }
+
+    // UI thread state; records [cachedFrom, cachedFrom + cache.size()) are in memory
+    private boolean opened;
+    private boolean cleared; // Cleared before the open landed, so what it found is stale
+    private boolean closed;
+    private long earlyMark = -1; // Cursor of a save that finished before the open landed, or -1
+    private long earlyLength;
+    private long earlyModified;
+    private boolean prefetching;
+    private int generation; // Bumped on clear, so records read back before it are dropped
+    private final ArrayList<EditHistory.Edit> cache = new ArrayList<>();
+    private long cacheBytes;
+    private long first; // Oldest record that may still be in the file
+    private long cachedFrom;
+    private long cursor; // Records before it can be undone, records after it redone
+    private long written; // Records before it have been handed to IO
+    private EditHistory.Edit continuation; // Merged into record written - 1 since it was handed over
+    private long recoverTo = -1; // Cursor the document must be brought to after reopening, or -1
+    private long pendingMark = -1; // Cursor when the save in progress took its snapshot, or -1
+    private int saveTicket;
+    private int references;
+
+    // IO thread state; starts[i] is where record diskFirst + i begins in the file
+    private final File journalFile;
+    private RandomAccessFile raf; // null if the journal could not be opened
+    private long[] starts = new long[64];
+    private int diskCount;
+    private long diskFirst;
+    private long fileEnd;
+    private long diskCursor;
+    private long savedRecord = -1; // Record the file on disk ends before, or -1
+    private long headOnDisk = -1; // Cursor position as last written to the header, -1 for the end
+
+    private UndoJournal(File journalFile, File document) {
+        this.journalFile = journalFile;
+        IO.execute(() -> {
+            Restored restored = ioOpen(document);
+            MAIN.post(() -> adopt(restored));
+        });
+    }
+
+    // Each open must be matched by a close
+    public static UndoJournal open(File journalFile, File document) {
+        String key = journalFile.getAbsolutePath();
+        UndoJournal journal = OPEN.get(key);
+        if (journal == null) {
+            journal = new UndoJournal(journalFile, document);
+            OPEN.put(key, journal);
+        }
+        journal.references++;
+        return journal;
+    }
+
+    @Override
+    public void whenReady(Runnable task) {
+        // Runs after the open, which was queued first; anything it posts to the UI thread runs
+        // after the open has been taken over there
+        IO.execute(task);
+    }
+
+    @Override
+    public int beginSave() {
+        flush();
+        pendingMark = cursor;
+        return ++saveTicket;
+    }
+
+    @Override
+    public void markSaved(File document, int ticket) {
+        if (ticket != saveTicket) return;
+        long mark = pendingMark;
+        // Taken now: a later save cannot have replaced the file yet, but may have by the time IO runs
+        long length = document.length();
+        long modified = document.lastModified();
+        if (!opened) {
+            earlyMark = mark;
+            earlyLength = length;
+            earlyModified = modified;
+            return;
+        }
+        IO.execute(() -> ioMarkSaved(mark, length, modified));
+    }
+
+    @Override
+    public void sync(EditHistory.SyncListener listener) {
+        flush();
+        IO.execute(() -> {
+            long started = System.nanoTime();
+            long pending = ioSync();
+            listener.onSynced(pending, System.nanoTime() - started);
+        });
+    }
+
+    @Override
+    public int pendingRecovery() {
+        if (recoverTo < 0) return 0;
+        if (recoverTo == cursor) {
+            recoverTo = -1;
+            return 0;
+        }
+        return recoverTo > cursor ? 1 : -1;
+    }
+
+    @Override
+    public EditHistory.Edit peekUndo() {
+        if (cursor <= first) return null;
+        prefetch();
+        // Undo has gone past the records in memory before IO could read the next ones back
+        if (cursor == cachedFrom) return null;
+        return cache.get((int) (cursor - 1 - cachedFrom));
+    }
+
+    @Override
+    public EditHistory.Edit peekRedo() {
+        return cursor < end() ? cache.get((int) (cursor - cachedFrom)) : null;
+    }
+
+    @Override
+    public void moveBack() {
+        flush();
+        long head = --cursor;
+        if (opened) IO.execute(() -> ioHead(head));
+    }
+
+    @Override
+    public void moveForward() {
+        flush();
+        long head = ++cursor;
+        if (opened) IO.execute(() -> ioHead(head));
+    }
+
+    @Override
+    public void dropRedo() {
+        recoverTo = -1;
+        if (cursor == end()) return;
+        while (end() > cursor) {
+            cacheBytes -= cache.remove(cache.size() - 1).bytes();
+        }
+        if (pendingMark > cursor) {
+            pendingMark = -1;
+        }
+        if (written > cursor) {
+            written = cursor;
+            continuation = null;
+            long cut = cursor;
+            IO.execute(() -> ioTruncate(cut));
+        }
+    }
+
+    @Override
+    public void push(EditHistory.Edit edit) {
+        recoverTo = -1;
+        // The record before can no longer grow
+        flush();
+        cache.add(edit);
+        cacheBytes += edit.bytes();
+        cursor++;
+        evict();
+    }
+
+    @Override
+    public void extendUndo(EditHistory.Edit merged, EditHistory.Edit edit) {
+        int i = (int) (cursor - 1 - cachedFrom);
+        cacheBytes -= cache.get(i).bytes();
+        if (cursor > written && merged.isEmpty()) {
+            // Text typed and then backspaced away within one burst leaves nothing to undo
+            cache.remove(i);
+            cursor--;
+            return;
+        }
+        if (cursor <= written) {
+            // Already on disk: only the new edit is written later
+            continuation = continuation == null ? edit : EditHistory.fold(continuation, edit);
+        }
+        cache.set(i, merged);
+        cacheBytes += merged.bytes();
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        cacheBytes = 0;
+        first = cachedFrom = cursor = written = 0;
+        continuation = null;
+        recoverTo = -1;
+        pendingMark = -1;
+        earlyMark = -1;
+        cleared = !opened;
+        generation++;
+        IO.execute(() -> {
+            try {
+                ioReset(0);
+            } catch (IOException e) {
+                // Ignore
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (--references > 0) return;
+        OPEN.remove(journalFile.getAbsolutePath());
+        closed = true;
+        flush();
+        IO.execute(this::ioClose);
+    }
+
+    private long end() {
+        return cachedFrom + cache.size();
+    }
+
+    // Takes over what the open found, placing anything done in the meantime after the saved position
+    private void adopt(Restored restored) {
+        opened = true;
+        if (closed) return;
+        if (cleared) {
+            // The reset queued by the clear has emptied the file since
+            restored = new Restored(0, 0, 0, 0, new ArrayList<>());
+        }
+        long base = restored.saved;
+        ArrayList<EditHistory.Edit> local = new ArrayList<>(cache);
+        cache.clear();
+        if (local.isEmpty()) {
+            cache.addAll(restored.tail);
+            written = restored.count;
+            recoverTo = restored.head != restored.saved ? restored.head : -1;
+        } else {
+            // The new edits replace whatever followed the save, so there is nothing to recover
+            cache.addAll(restored.tail.subList(0, (int) (base - restored.tailFrom)));
+            written = base;
+            IO.execute(() -> ioTruncate(base));
+        }
+        cache.addAll(local);
+        cacheBytes = 0;
+        for (EditHistory.Edit edit : cache) cacheBytes += edit.bytes();
+        cachedFrom = restored.tailFrom;
+        cursor += base;
+        if (pendingMark >= 0) pendingMark += base;
+        if (!local.isEmpty()) {
+            flush();
+            long head = cursor;
+            IO.execute(() -> ioHead(head));
+        }
+        if (earlyMark >= 0) {
+            long mark = base + earlyMark;
+            long length = earlyLength;
+            long modified = earlyModified;
+            earlyMark = -1;
+            IO.execute(() -> ioMarkSaved(mark, length, modified));
+        }
+    }
+
+    // Reads the next older records back on IO while undo is still working through the ones in memory
+    private void prefetch() {
+        if (!opened || prefetching || cachedFrom <= first || cursor - cachedFrom > PREFETCH_RECORDS) return;
+        prefetching = true;
+        long to = cachedFrom;
+        long from = Math.max(first, to - PREFETCH_RECORDS);
+        int expected = generation;
+        IO.execute(() -> {
+            ArrayList<EditHistory.Edit> edits = ioReadRange(from, to);
+            MAIN.post(() -> prefetched(expected, from, to, edits));
+        });
+    }
+
+    private void prefetched(int expected, long from, long to, ArrayList<EditHistory.Edit> edits) {
+        prefetching = false;
+        if (expected != generation || to != cachedFrom || closed) return;
+        long loaded = to - edits.size();
+        if (loaded > from) {
+            // Anything older than what came back was compacted away
+            first = loaded;
+        }
+        cache.addAll(0, edits);
+        for (EditHistory.Edit edit : edits) cacheBytes += edit.bytes();
+        cachedFrom = loaded;
+    }
+
+    // Hands the records not yet written to IO, and what was merged into the last written one
+    private void flush() {
+        if (!opened) return;
+        if (continuation != null) {
+            EditHistory.Edit edit = continuation;
+            long record = written - 1;
+            continuation = null;
+            IO.execute(() -> ioAppend(record, edit, true));
+        }
+        for (; written < end(); written++) {
+            EditHistory.Edit edit = cache.get((int) (written - cachedFrom));
+            long record = written;
+            IO.execute(() -> ioAppend(record, edit, false));
+        }
+    }
+
+    // Drops written records from memory, oldest first, once they pass the budget
+    private void evict() {
+        while (cacheBytes > TAIL_BYTES && cachedFrom < written && cachedFrom < cursor - 1) {
+            cacheBytes -= cache.remove(0).bytes();
+            cachedFrom++;
+        }
+    }
+
+    // Everything below runs on IO
+
+    private Restored ioOpen(File document) {
+        try {
+            journalFile.getParentFile().mkdirs();
+            raf = new RandomAccessFile(journalFile, "rw");
+            Restored restored = null;
+            try {
+                restored = ioRestore(document);
+            } catch (IOException e) {
+                // Unreadable; start over below
+            }
+            if (restored != null) return restored;
+            ioReset(0);
+            // A fresh journal starts out matching the file as it is on disk
+            ioMarkSaved(0, document.length(), document.lastModified());
+        } catch (IOException e) {
+            // The history then only lives in memory
+            ioClose();
+        }
+        return new Restored(0, 0, 0, 0, new ArrayList<>());
+    }
+
+    private Restored ioRestore(File document) throws IOException {
+        if (raf.length() < HEADER_SIZE) return null;
+        raf.seek(0);
+        if (raf.readInt() != MAGIC) return null;
+        long length = raf.readLong();
+        long modified = raf.readLong();
+        long saved = raf.readLong();
+        long head = raf.readLong();
+        if (length != document.length() || modified != document.lastModified()) return null;
+        long end = raf.length();
+        if (saved < HEADER_SIZE || saved > end) return null;
+
+        // Index the records, reading the file front to back; it is cut at a frame torn by the
+        // process dying mid-append
+        long savedAt = -1;
+        long headAt = -1;
+        long pos = HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024))) {
+            skipFully(in, HEADER_SIZE);
+            while (end - pos >= 8) {
+                int frame = in.readInt();
+                if (frame < 12 || pos + 8 + frame > end) break;
+                in.readInt();
+                boolean joined = in.readLong() < 0;
+                skipFully(in, frame - 12);
+                if (in.readInt() != frame) break;
+                if (!joined || diskCount == 0) {
+                    if (pos == saved) savedAt = diskCount;
+                    if (pos == head) headAt = diskCount;
+                    addStart(pos);
+                }
+                pos += 8 + frame;
+            }
+        }
+        if (pos < end) raf.setLength(pos);
+        fileEnd = pos;
+        if (pos == saved) savedAt = diskCount;
+        if (headAt < 0) headAt = diskCount;
+        if (savedAt < 0) return null;
+
+        savedRecord = savedAt;
+        diskCursor = savedAt;
+        headOnDisk = head;
+        // The records recovery may replay are kept in memory from the start
+        long tailFrom = Math.min(savedAt, headAt);
+        ArrayList<EditHistory.Edit> tail = new ArrayList<>();
+        for (long record = tailFrom; record < diskCount; record++) {
+            EditHistory.Edit edit = ioRead(record);
+            if (edit == null) return null;
+            tail.add(edit);
+        }
+        return new Restored(diskCount, savedAt, headAt, tailFrom, tail);
+    }
+
+    private void ioReset(long firstRecord) throws IOException {
+        if (raf == null) return;
+        raf.setLength(0);
+        headOnDisk = -1;
+        writeHeader(-1, -1, -1);
+        diskFirst = firstRecord;
+        diskCount = 0;
+        fileEnd = HEADER_SIZE;
+        diskCursor = firstRecord;
+        savedRecord = -1;
+    }
+
+    private void ioAppend(long record, EditHistory.Edit edit, boolean joined) {
+        if (raf == null) return;
+        try {
+            if (joined) {
+                // Only the last record in the file is ever continued
+                if (record != diskFirst + diskCount - 1) return;
+            } else {
+                ioTruncate(record);
+                if (record != diskFirst + diskCount) {
+                    // Records before it never made it to disk; start over from this one
+                    ioReset(record);
+                }
+                addStart(fileEnd);
+            }
+            byte[] frame = encode(edit, joined);
+            raf.seek(fileEnd);
+            raf.write(frame);
+            fileEnd += frame.length;
+            ioHead(record + 1);
+            if (fileEnd > MAX_BYTES) {
+                ioCompact();
+            }
+        } catch (IOException e) {
+            // Undo history is best effort; the edit itself is already applied
+        }
+    }
+
+    private void ioTruncate(long record) {
+        if (raf == null) return;
+        int i = (int) (record - diskFirst);
+        if (i >= diskCount) return;
+        try {
+            if (i < 0) {
+                // Back past the oldest record kept, so nothing in the file is still reachable
+                ioReset(record);
+                return;
+            }
+            fileEnd = starts[i];
+            diskCount = i;
+            raf.setLength(fileEnd);
+            // The saved state is no longer reachable from the journal
+            if (savedRecord > record) {
+                savedRecord = -1;
+                writeHeader(-1, -1, -1);
+            }
+            ioHead(Math.min(diskCursor, record));
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    // Records where undo/redo left the cursor; the end of the file needs no position
+    private void ioHead(long record) {
+        if (raf == null) return;
+        diskCursor = record;
+        try {
+            if (record < diskFirst && savedRecord >= 0) {
+                // The cursor is before the oldest record kept: recovery could not get there
+                savedRecord = -1;
+                writeHeader(-1, -1, -1);
+            }
+            long head = record >= diskFirst + diskCount || record < diskFirst ? -1 : positionOf(record);
+            if (head == headOnDisk) return;
+            raf.seek(HEADER_SIZE - 8);
+            raf.writeLong(head);
+            headOnDisk = head;
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void ioMarkSaved(long record, long length, long modified) {
+        if (raf == null) return;
+        try {
+            if (record < diskFirst || record > diskFirst + diskCount) {
+                // The snapshot's position was cut out of the journal while it was being written
+                savedRecord = -1;
+                writeHeader(-1, -1, -1);
+            } else {
+                savedRecord = record;
+                writeHeader(length, modified, positionOf(record));
+            }
+            raf.getFD().sync();
+        } catch (IOException e) {
+            savedRecord = -1;
+        }
+    }
+
+    // Makes the records written so far durable; returns the bytes between the saved position
+    // and the cursor, or -1 if nothing survives the process
+    private long ioSync() {
+        if (raf == null) return -1;
+        try {
+            raf.getFD().sync();
+        } catch (IOException e) {
+            return -1;
+        }
+        if (savedRecord < 0) return Long.MAX_VALUE;
+        long cursorRecord = Math.max(diskFirst, Math.min(diskCursor, diskFirst + diskCount));
+        return Math.abs(positionOf(cursorRecord) - positionOf(savedRecord));
+    }
+
+    private void ioClose() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        raf = null;
+    }
+
+    // Drops the oldest records before the cursor until the journal is back under half its size
+    // limit. The kept records move to the front, each folded into a single frame.
+    private void ioCompact() throws IOException {
+        int cursorIndex = (int) Math.max(0, Math.min(diskCount, diskCursor - diskFirst));
+        int cut = 0;
+        while (cut < cursorIndex && fileEnd - starts[cut] > MAX_BYTES / 2) cut++;
+        if (cut == 0) return;
+
+        long write = HEADER_SIZE;
+        for (int i = cut; i < diskCount; i++) {
+            long start = starts[i];
+            long end = i + 1 < diskCount ? starts[i + 1] : fileEnd;
+            byte[] frame = new byte[(int) (end - start)];
+            raf.seek(start);
+            raf.readFully(frame);
+            int firstFrame = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+            if (firstFrame + 8 < frame.length) {
+                EditHistory.Edit edit = ioRead(diskFirst + i);
+                byte[] folded = edit != null ? encode(edit, false) : null;
+                // A folded record is never longer than its frames, so nothing unread is overwritten
+                if (folded != null && folded.length <= frame.length) frame = folded;
+            }
+            raf.seek(write);
+            raf.write(frame);
+            starts[i - cut] = write;
+            write += frame.length;
+        }
+        diskFirst += cut;
+        diskCount -= cut;
+        fileEnd = write;
+        raf.setLength(write);
+        if (savedRecord >= diskFirst) {
+            raf.seek(4 + 8 + 8);
+            raf.writeLong(positionOf(savedRecord));
+        } else if (savedRecord >= 0) {
+            savedRecord = -1;
+            writeHeader(-1, -1, -1);
+        }
+        headOnDisk = Long.MIN_VALUE;
+        ioHead(diskCursor);
+    }
+
+    // Reads the records [from, to), stopping at the newest one that cannot be read
+    private ArrayList<EditHistory.Edit> ioReadRange(long from, long to) {
+        ArrayList<EditHistory.Edit> edits = new ArrayList<>();
+        for (long record = to - 1; record >= from; record--) {
+            EditHistory.Edit edit = ioRead(record);
+            if (edit == null) break;
+            edits.add(edit);
+        }
+        java.util.Collections.reverse(edits);
+        return edits;
+    }
+
+    // Reads a record, folding in its continuation frames
+    private EditHistory.Edit ioRead(long record) {
+        int i = (int) (record - diskFirst);
+        if (raf == null || i < 0 || i >= diskCount) return null;
+        long end = i + 1 < diskCount ? starts[i + 1] : fileEnd;
+        try {
+            EditHistory.Edit edit = null;
+            for (long pos = starts[i]; pos < end; ) {
+                raf.seek(pos);
+                byte[] payload = new byte[raf.readInt()];
+                raf.readFully(payload);
+                EditHistory.Edit part = decode(payload);
+                edit = edit == null ? part : EditHistory.fold(edit, part);
+                pos += 8 + payload.length;
+            }
+            return edit;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private long positionOf(long record) {
+        return record == diskFirst + diskCount ? fileEnd : starts[(int) (record - diskFirst)];
+    }
+
+    private void addStart(long position) {
+        if (diskCount == starts.length) {
+            starts = java.util.Arrays.copyOf(starts, starts.length * 2);
+        }
+        starts[diskCount++] = position;
+    }
+
+    private void writeHeader(long length, long modified, long saved) throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeLong(length);
+        raf.writeLong(modified);
+        raf.writeLong(saved);
+        raf.writeLong(headOnDisk);
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0) throw new java.io.EOFException();
+            count -= skipped;
+        }
+    }
+
+    private static EditHistory.Edit decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int offset = in.readInt();
+        long time = in.readLong();
+        if (time < 0) {
+            time = -1 - time;
+        }
+        if (offset < 0) {
+            // A batch: minus the part count, then offset and texts of each part
+            EditHistory.Edit[] parts = new EditHistory.Edit[-offset];
+            for (int i = 0; i < parts.length; i++) {
+                int partOffset = in.readInt();
+                String removed = readString(in);
+                parts[i] = new EditHistory.Edit(partOffset, removed, readString(in), time);
+            }
+            return new EditHistory.Edit(parts, time);
+        }
+        String removed = readString(in);
+        String inserted = readString(in);
+        return new EditHistory.Edit(offset, removed, inserted, time);
+    }
+
+    // A continuation frame stores its time as -1 - time
+    private static byte[] encode(EditHistory.Edit edit, boolean joined) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        long time = joined ? -1 - edit.time : edit.time;
+        if (edit.parts != null) {
+            // Offsets are never negative, so a negative one marks a batch
+            out.writeInt(-edit.parts.length);
+            out.writeLong(time);
+            for (EditHistory.Edit part : edit.parts) {
+                out.writeInt(part.offset);
+                writeString(out, part.removed);
+                writeString(out, part.inserted);
+            }
+        } else {
+            out.writeInt(edit.offset);
+            out.writeLong(time);
+            writeString(out, edit.removed);
+            writeString(out, edit.inserted);
+        }
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.size() + 8);
+        DataOutputStream framed = new DataOutputStream(frame);
+        framed.writeInt(payload.size());
+        payload.writeTo(framed);
+        framed.writeInt(payload.size());
+        return frame.toByteArray();
+    }
+
+    // UTF-16 as-is, so a record splitting a surrogate pair still round-trips exactly
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        out.writeInt(text.length());
+        out.writeChars(text);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        char[] chars = new char[in.readInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+}